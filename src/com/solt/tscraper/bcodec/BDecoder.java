@@ -15,7 +15,6 @@
  */
 package com.solt.tscraper.bcodec;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.EOFException;
@@ -37,6 +36,13 @@ import java.util.Map;
  * </p>
  *
  * <p>
+ * A decoder over a {@link ByteBuffer}, heap or direct, reads it in place
+ * with absolute gets and does not copy byte strings: they are decoded into
+ * views of the buffer, which are only valid while its content is left
+ * untouched.
+ * </p>
+ *
+ * <p>
  * Inspired by Snark's implementation.
  * </p>
  *
@@ -45,9 +51,14 @@ import java.util.Map;
  */
 public class BDecoder {
 
-	// The InputStream to BDecode.
+	// The InputStream to BDecode, or null when decoding a buffer.
 	private final InputStream in;
 
+	// The buffer to BDecode in place, from position to limit.
+	private final ByteBuffer buffer;
+	private int position;
+	private final int limit;
+
 	// The last indicator read.
 	// Zero if unknown.
 	// '0'..'9' indicates a byte[].
@@ -59,6 +70,9 @@ public class BDecoder {
 	// Call getNextIndicator to get the current value (will never return zero).
 	private int indicator = 0;
 
+	// The encoding dictionary keys are interpreted with.
+	private final String keyEncoding;
+
 	/**
 	 * Initializes a new BDecoder.
 	 *
@@ -69,7 +83,59 @@ public class BDecoder {
 	 * @param in The input stream to read from.
 	 */
 	public BDecoder(InputStream in) {
+		this(in, "UTF-8");
+	}
+
+	/**
+	 * Initializes a new BDecoder reading dictionary keys with the given
+	 * encoding.
+	 *
+	 * <p>
+	 * Use a single-byte encoding such as ISO-8859-1 when keys are binary
+	 * (e.g. info hashes in scrape responses) and must survive the round trip
+	 * back to bytes.
+	 * </p>
+	 *
+	 * @param in The input stream to read from.
+	 * @param keyEncoding The encoding of dictionary keys.
+	 */
+	public BDecoder(InputStream in, String keyEncoding) {
 		this.in = in;
+		this.buffer = null;
+		this.limit = 0;
+		this.keyEncoding = keyEncoding;
+	}
+
+	/**
+	 * Initializes a new BDecoder over the bytes between the buffer's position
+	 * and limit.
+	 *
+	 * @param data The buffer to read from.
+	 */
+	public BDecoder(ByteBuffer data) {
+		this(data, "UTF-8");
+	}
+
+	/**
+	 * Initializes a new BDecoder over the bytes between the buffer's position
+	 * and limit. The buffer's position is left untouched.
+	 *
+	 * @param data The buffer to read from.
+	 * @param keyEncoding The encoding of dictionary keys.
+	 */
+	public BDecoder(ByteBuffer data, String keyEncoding) {
+		this.in = null;
+		this.buffer = data;
+		this.position = data.position();
+		this.limit = data.limit();
+		this.keyEncoding = keyEncoding;
+	}
+
+	/**
+	 * Returns how far the decoder got into the buffer it decodes.
+	 */
+	public int getPosition() {
+		return this.position;
 	}
 
 	/**
@@ -97,7 +163,27 @@ public class BDecoder {
 	 * @param data The {@link ByteBuffer} to read from.
 	 */
 	public static BEValue bdecode(ByteBuffer data) throws IOException {
-		return BDecoder.bdecode(new ByteArrayInputStream(data.array(), data.position(), data.remaining()));
+		return new BDecoder(data).bdecode();
+	}
+
+	/**
+	 * Decode a B-encoded byte array, without copying its byte strings.
+	 *
+	 * @param data The array to read from.
+	 */
+	public static BEValue bdecode(byte[] data) throws IOException {
+		return new BDecoder(ByteBuffer.wrap(data)).bdecode();
+	}
+
+	/**
+	 * Decode a B-encoded byte buffer, reading dictionary keys with the given
+	 * encoding.
+	 *
+	 * @param data The {@link ByteBuffer} to read from.
+	 * @param keyEncoding The encoding of dictionary keys.
+	 */
+	public static BEValue bdecode(ByteBuffer data, String keyEncoding) throws IOException {
+		return new BDecoder(data, keyEncoding).bdecode();
 	}
 
 	/**
@@ -113,7 +199,12 @@ public class BDecoder {
 	 */
 	private int getNextIndicator() throws IOException {
 		if (this.indicator == 0) {
-			this.indicator = in.read();
+			if (this.buffer == null) {
+				this.indicator = in.read();
+			} else {
+				this.indicator = this.position < this.limit
+					? this.buffer.get(this.position++) & 0xFF : -1;
+			}
 		}
 		return this.indicator;
 	}
@@ -157,7 +248,8 @@ public class BDecoder {
 		c = this.read();
 		int i = c - '0';
 		while (i >= 0 && i <= 9) {
-			// This can overflow!
+			if (num > (Integer.MAX_VALUE - i) / 10)
+				throw new InvalidBEncodingException("Byte string too long");
 			num = num*10 + i;
 			c = this.read();
 			i = c - '0';
@@ -168,6 +260,8 @@ public class BDecoder {
 				(char)c + "'");
 		}
 
+		if (this.buffer != null)
+			return new BEValue(this.view(num));
 		return new BEValue(read(num));
 	}
 
@@ -175,6 +269,11 @@ public class BDecoder {
 	 * Returns the next b-encoded value on the stream and makes sure it is a
 	 * number.
 	 *
+	 * <p>
+	 * Integers that fit a long are parsed straight into one and kept unboxed
+	 * by the returned value; only larger ones become a {@link BigInteger}.
+	 * </p>
+	 *
 	 * @throws InvalidBEncodingException If it is not a number.
 	 */
 	public BEValue bdecodeNumber() throws IOException {
@@ -189,44 +288,60 @@ public class BDecoder {
 		if (c == '0') {
 			c = this.read();
 			if (c == 'e')
-				return new BEValue(BigInteger.ZERO);
+				return new BEValue(0L);
 			else
 				throw new InvalidBEncodingException("'e' expected after zero," +
 					" not '" + (char)c + "'");
 		}
 
-		// We don't support more the 255 char big integers
-		char[] chars = new char[256];
-		int off = 0;
-
-		if (c == '-') {
+		boolean negative = c == '-';
+		if (negative) {
 			c = this.read();
 			if (c == '0')
 				throw new InvalidBEncodingException("Negative zero not allowed");
-			chars[off] = '-';
-			off++;
 		}
 
 		if (c < '1' || c > '9')
 			throw new InvalidBEncodingException("Invalid Integer start '"
 					+ (char)c + "'");
-		chars[off] = (char)c;
-		off++;
 
-		c = this.read();
-		int i = c - '0';
-		while (i >= 0 && i <= 9) {
-			chars[off] = (char)c;
-			off++;
-			c = read();
-			i = c - '0';
+		// Accumulated negatively, so that Long.MIN_VALUE fits.
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		while (c >= '0' && c <= '9') {
+			int digit = c - '0';
+			if (value < (limit + digit) / 10) {
+				return this.bdecodeBigInteger(value, negative, c);
+			}
+			value = value * 10 - digit;
+			c = this.read();
 		}
 
 		if (c != 'e')
 			throw new InvalidBEncodingException("Integer should end with 'e'");
 
-		String s = new String(chars, 0, off);
-		return new BEValue(new BigInteger(s));
+		return new BEValue(negative ? value : -value);
+	}
+
+	/**
+	 * Goes on with an integer too large for a long.
+	 *
+	 * @param value The digits read so far, negated.
+	 * @param c The first digit that did not fit.
+	 */
+	private BEValue bdecodeBigInteger(long value, boolean negative, int c)
+		throws IOException {
+		BigInteger big = BigInteger.valueOf(value);
+		while (c >= '0' && c <= '9') {
+			big = big.multiply(BigInteger.TEN)
+				.subtract(BigInteger.valueOf(c - '0'));
+			c = this.read();
+		}
+
+		if (c != 'e')
+			throw new InvalidBEncodingException("Integer should end with 'e'");
+
+		return new BEValue(negative ? big : big.negate());
 	}
 
 	/**
@@ -272,7 +387,7 @@ public class BDecoder {
 		c = this.getNextIndicator();
 		while (c != 'e') {
 			// Dictionary keys are always strings.
-			String key = this.bdecode().getString();
+			String key = this.bdecode().getString(this.keyEncoding);
 
 			BEValue value = this.bdecode();
 			result.put(key, value);
@@ -290,12 +405,33 @@ public class BDecoder {
 	 * @throws EOFException If InputStream.read() returned -1.
 	 */
 	private int read() throws IOException {
+		if (this.buffer != null) {
+			if (this.position >= this.limit)
+				throw new EOFException();
+			return this.buffer.get(this.position++) & 0xFF;
+		}
 		int c = this.in.read();
 		if (c == -1)
 			throw new EOFException();
 		return c;
 	}
 
+	/**
+	 * Returns a view of the next length bytes of the buffer.
+	 *
+	 * @throws EOFException If the buffer ends before.
+	 */
+	private ByteBuffer view(int length) throws IOException {
+		if (length > this.limit - this.position)
+			throw new EOFException();
+		ByteBuffer view = this.buffer.duplicate();
+		view.clear();
+		view.limit(this.position + length);
+		view.position(this.position);
+		this.position += length;
+		return view;
+	}
+
 	/**
 	 * Returns a byte[] containing length valid bytes starting at offset zero.
 	 *
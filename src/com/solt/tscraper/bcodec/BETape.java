@@ -0,0 +1,247 @@
+package com.solt.tscraper.bcodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A structural index of a B-encoded buffer, for lazy decoding.
+ *
+ * <p>
+ * One pass over the buffer validates it and records every value on a tape
+ * of ints: its type, where its encoding and its bytes start, where they
+ * end, and for lists and dictionaries the tape index right after their last
+ * member, so that a whole container is skipped in one step. Nothing else is
+ * allocated.
+ * {@link #getRoot()} is a {@link BEValue} backed by the tape: the maps and
+ * lists it returns are views that find their members on the tape, and a
+ * member is only decoded when it is read. Values nobody reads, such as the
+ * piece hashes of a torrent, cost five ints each.
+ * </p>
+ *
+ * <p>
+ * The values read the buffer in place, which must not be changed while
+ * they are in use.
+ * </p>
+ */
+public final class BETape {
+
+	static final int STRING = 's';
+	static final int INTEGER = 'i';
+	static final int LIST = 'l';
+	static final int DICTIONARY = 'd';
+
+	// Ints per token: type, start, end, next, encoded start.
+	private static final int TOKEN_SIZE = 5;
+
+	private final ByteBuffer data;
+	private final Charset keyEncoding;
+	private int[] tape;
+	private int count;
+
+	private BETape(ByteBuffer data, Charset keyEncoding) {
+		this.data = data;
+		this.keyEncoding = keyEncoding;
+		this.tape = new int[16 * TOKEN_SIZE];
+	}
+
+	/**
+	 * Lazily decodes the value between the buffer's position and limit,
+	 * reading dictionary keys as UTF-8.
+	 */
+	public static BEValue bdecode(ByteBuffer data) throws IOException {
+		return index(data, "UTF-8").getRoot();
+	}
+
+	/**
+	 * Indexes the value between the buffer's position and limit. The
+	 * buffer's position is left untouched.
+	 *
+	 * @param keyEncoding The encoding of dictionary keys.
+	 * @throws InvalidBEncodingException If the buffer is not B-encoded.
+	 * @throws EOFException If the value is truncated.
+	 */
+	public static BETape index(ByteBuffer data, String keyEncoding)
+			throws IOException {
+		BETape tape = new BETape(data, Charset.forName(keyEncoding));
+		tape.parse();
+		return tape;
+	}
+
+	/**
+	 * Returns the root value, backed by the tape.
+	 */
+	public BEValue getRoot() {
+		return new LazyBEValue(this, 0);
+	}
+
+	/**
+	 * Returns the number of values on the tape.
+	 */
+	public int getTokenCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the buffer offset right after the root value.
+	 */
+	public int getEnd() {
+		return end(0);
+	}
+
+	ByteBuffer getData() {
+		return data;
+	}
+
+	Charset getKeyEncoding() {
+		return keyEncoding;
+	}
+
+	int type(int token) {
+		return tape[token * TOKEN_SIZE];
+	}
+
+	/**
+	 * Returns where the value starts: the first byte of a string's content,
+	 * the first digit or sign of an integer, the 'l' or 'd' of a container.
+	 */
+	int start(int token) {
+		return tape[token * TOKEN_SIZE + 1];
+	}
+
+	/**
+	 * Returns where the value ends: after a string's content, at the 'e' of
+	 * an integer, after the 'e' of a container.
+	 */
+	int end(int token) {
+		return tape[token * TOKEN_SIZE + 2];
+	}
+
+	/**
+	 * Returns the token following the value and all its members.
+	 */
+	int next(int token) {
+		return tape[token * TOKEN_SIZE + 3];
+	}
+
+	/**
+	 * Returns where the encoding of the value starts: the first digit of a
+	 * string's length, the 'i' of an integer, the 'l' or 'd' of a container.
+	 */
+	int encodedStart(int token) {
+		return tape[token * TOKEN_SIZE + 4];
+	}
+
+	private int add(int type, int encodedStart, int start, int end) {
+		if (count * TOKEN_SIZE == tape.length) {
+			tape = Arrays.copyOf(tape, tape.length * 2);
+		}
+		int token = count++;
+		int offset = token * TOKEN_SIZE;
+		tape[offset] = type;
+		tape[offset + 1] = start;
+		tape[offset + 2] = end;
+		tape[offset + 3] = token + 1;
+		tape[offset + 4] = encodedStart;
+		return token;
+	}
+
+	private void parse() throws IOException {
+		int position = data.position();
+		int limit = data.limit();
+		// Open containers, and for dictionaries whether a key comes next.
+		int[] open = new int[8];
+		boolean[] keyNext = new boolean[8];
+		int depth = 0;
+		do {
+			if (position >= limit) {
+				throw new EOFException();
+			}
+			int c = data.get(position) & 0xFF;
+			if (c == 'e' && depth > 0) {
+				int container = open[--depth];
+				if (type(container) == DICTIONARY && !keyNext[depth]) {
+					throw new InvalidBEncodingException("Dictionary key without value");
+				}
+				tape[container * TOKEN_SIZE + 2] = ++position;
+				tape[container * TOKEN_SIZE + 3] = count;
+				continue;
+			}
+			if (depth > 0 && type(open[depth - 1]) == DICTIONARY) {
+				if (keyNext[depth - 1] && (c < '0' || c > '9')) {
+					throw new InvalidBEncodingException("Dictionary keys must be strings");
+				}
+				keyNext[depth - 1] = !keyNext[depth - 1];
+			}
+			if (c >= '0' && c <= '9') {
+				position = parseString(position, limit);
+			} else if (c == 'i') {
+				position = parseInteger(position + 1, limit);
+			} else if (c == 'l' || c == 'd') {
+				if (depth == open.length) {
+					open = Arrays.copyOf(open, depth * 2);
+					keyNext = Arrays.copyOf(keyNext, depth * 2);
+				}
+				open[depth] = add(c, position, position, 0);
+				keyNext[depth++] = true;
+				++position;
+			} else {
+				throw new InvalidBEncodingException("Unknown indicator '" + c + "'");
+			}
+		} while (depth > 0);
+	}
+
+	private int parseString(int position, int limit) throws IOException {
+		int encodedStart = position;
+		int length = 0;
+		int c;
+		while (true) {
+			if (position >= limit) {
+				throw new EOFException();
+			}
+			c = data.get(position++) & 0xFF;
+			if (c < '0' || c > '9') {
+				break;
+			}
+			if (length > (Integer.MAX_VALUE - (c - '0')) / 10) {
+				throw new InvalidBEncodingException("Byte string too long");
+			}
+			length = length * 10 + c - '0';
+		}
+		if (c != ':') {
+			throw new InvalidBEncodingException("Colon expected, not '" + (char) c + "'");
+		}
+		if (length > limit - position) {
+			throw new EOFException();
+		}
+		add(STRING, encodedStart, position, position + length);
+		return position + length;
+	}
+
+	private int parseInteger(int position, int limit) throws IOException {
+		int start = position;
+		if (position < limit && data.get(position) == '-') {
+			++position;
+		}
+		int digits = position;
+		while (position < limit && data.get(position) >= '0' && data.get(position) <= '9') {
+			++position;
+		}
+		if (position >= limit) {
+			throw new EOFException();
+		}
+		if (data.get(position) != 'e') {
+			throw new InvalidBEncodingException("Integer should end with 'e'");
+		}
+		if (position == digits) {
+			throw new InvalidBEncodingException("Integer without digits");
+		}
+		if (data.get(digits) == '0' && (position - digits > 1 || digits > start)) {
+			throw new InvalidBEncodingException("Invalid integer, leading zero or negative zero");
+		}
+		add(INTEGER, start - 1, start, position);
+		return position + 1;
+	}
+}
@@ -16,6 +16,8 @@
 package com.solt.tscraper.bcodec;
 
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -25,20 +27,52 @@ import java.util.Map;
 /**
  * A type-agnostic container for B-encoded values.
  *
+ * <p>
+ * Byte strings are held either as a <code>byte[]</code> or, when decoded
+ * from a buffer, as a {@link ByteBuffer} view of it. {@link #getBytes()}
+ * copies a view; {@link #getByteBuffer()} and {@link #getString(String)} do
+ * not.
+ * </p>
+ *
  * @author mpetazzoni
  */
 public class BEValue {
 
+	/** Marks a value held unboxed in {@link #longValue}. */
+	private static final Object LONG = new Object();
+
 	/**
-	 * The B-encoded value can be a byte array, a Number, a List or a Map.
-	 * Lists and Maps contains BEValues too.
+	 * The B-encoded value can be a byte array, a ByteBuffer view, a Number, a
+	 * List or a Map. Lists and Maps contains BEValues too.
 	 */
 	private final Object value;
 
+	/**
+	 * An integer that fits a long, when {@link #value} is {@link #LONG}. It
+	 * is only boxed when asked for as an object.
+	 */
+	private long longValue;
+
+	/**
+	 * For subclasses producing their value on demand, which override the
+	 * accessors.
+	 */
+	protected BEValue() {
+		this.value = null;
+	}
+
 	public BEValue(byte[] value) {
 		this.value = value;
 	}
 
+	/**
+	 * Wraps the bytes between the buffer's position and limit, without
+	 * copying them. The buffer must not be changed afterwards.
+	 */
+	public BEValue(ByteBuffer value) {
+		this.value = value;
+	}
+
 	public BEValue(String value) throws UnsupportedEncodingException {
 		this.value = value.getBytes("UTF-8");
 	}
@@ -53,7 +87,8 @@ public class BEValue {
 	}
 
 	public BEValue(long value) {
-		this.value = Long.valueOf(value);
+		this.value = LONG;
+		this.longValue = value;
 	}
 
 	public BEValue(Number value) {
@@ -69,7 +104,7 @@ public class BEValue {
 	}
 
 	public Object getValue() {
-		return this.value;
+		return this.value == LONG ? Long.valueOf(this.longValue) : this.value;
 	}
 
 	/**
@@ -90,6 +125,14 @@ public class BEValue {
 	 */
 	public String getString(String encoding) throws InvalidBEncodingException {
 		try {
+			if (this.value instanceof ByteBuffer) {
+				ByteBuffer view = (ByteBuffer)this.value;
+				if (view.hasArray()) {
+					return new String(view.array(),
+						view.arrayOffset() + view.position(), view.remaining(),
+						encoding);
+				}
+			}
 			return new String(this.getBytes(), encoding);
 		} catch (ClassCastException cce) {
 			throw new InvalidBEncodingException(cce.toString());
@@ -99,11 +142,18 @@ public class BEValue {
 	}
 
 	/**
-	 * Returns this BEValue as a byte[].
+	 * Returns this BEValue as a byte[], copied out of the source buffer when
+	 * the value is a view.
 	 *
 	 * @throws InvalidBEncodingException If the value is not a byte[].
 	 */
 	public byte[] getBytes() throws InvalidBEncodingException {
+		if (this.value instanceof ByteBuffer) {
+			ByteBuffer view = ((ByteBuffer)this.value).duplicate();
+			byte[] bytes = new byte[view.remaining()];
+			view.get(bytes);
+			return bytes;
+		}
 		try {
 			return (byte[])this.value;
 		} catch (ClassCastException cce) {
@@ -111,12 +161,42 @@ public class BEValue {
 		}
 	}
 
+	/**
+	 * Returns this byte string as a buffer, without copying it. The buffer is
+	 * a fresh view; its position and limit may be changed.
+	 *
+	 * @throws InvalidBEncodingException If the value is not a byte string.
+	 */
+	public ByteBuffer getByteBuffer() throws InvalidBEncodingException {
+		if (this.value instanceof ByteBuffer) {
+			return ((ByteBuffer)this.value).duplicate();
+		} else if (this.value instanceof byte[]) {
+			return ByteBuffer.wrap((byte[])this.value);
+		}
+		throw new InvalidBEncodingException("Expected byte string !");
+	}
+
+	/**
+	 * Returns a view of the B-encoded bytes this value was decoded from, as
+	 * they were read, or <code>null</code> if they were not kept.
+	 *
+	 * <p>
+	 * Only values of a {@link BETape} know their source bytes.
+	 * </p>
+	 */
+	public ByteBuffer getEncoded() {
+		return null;
+	}
+
 	/**
 	 * Returns this BEValue as a Number.
 	 *
 	 * @throws InvalidBEncodingException  If the value is not a {@link Number}.
 	 */
 	public Number getNumber() throws InvalidBEncodingException {
+		if (this.value == LONG) {
+			return Long.valueOf(this.longValue);
+		}
 		try {
 			return (Number)this.value;
 		} catch (ClassCastException cce) {
@@ -130,7 +210,7 @@ public class BEValue {
 	 * @throws InvalidBEncodingException If the value is not a {@link Number}.
 	 */
 	public short getShort() throws InvalidBEncodingException {
-		return this.getNumber().shortValue();
+		return (short)this.getLong();
 	}
 
 	/**
@@ -139,7 +219,7 @@ public class BEValue {
 	 * @throws InvalidBEncodingException If the value is not a {@link Number}.
 	 */
 	public int getInt() throws InvalidBEncodingException {
-		return this.getNumber().intValue();
+		return (int)this.getLong();
 	}
 
 	/**
@@ -148,9 +228,25 @@ public class BEValue {
 	 * @throws InvalidBEncodingException If the value is not a {@link Number}.
 	 */
 	public long getLong() throws InvalidBEncodingException {
+		if (this.value == LONG) {
+			return this.longValue;
+		}
 		return this.getNumber().longValue();
 	}
 
+	/**
+	 * Returns this BEValue as a BigInteger, whatever its size.
+	 *
+	 * @throws InvalidBEncodingException If the value is not a {@link Number}.
+	 */
+	public BigInteger getBigInteger() throws InvalidBEncodingException {
+		Number number = this.getNumber();
+		if (number instanceof BigInteger) {
+			return (BigInteger)number;
+		}
+		return BigInteger.valueOf(number.longValue());
+	}
+
 	/**
 	 * Returns this BEValue as a List of BEValues.
 	 *
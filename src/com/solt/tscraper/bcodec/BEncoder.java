@@ -54,6 +54,8 @@ public class BEncoder {
 			bencode((String)o, out);
 		} else if (o instanceof byte[]) {
 			bencode((byte[])o, out);
+		} else if (o instanceof ByteBuffer) {
+			bencode((ByteBuffer)o, out);
 		} else if (o instanceof Number) {
 			bencode((Number)o, out);
 		} else if (o instanceof List) {
@@ -94,6 +96,19 @@ public class BEncoder {
 		out.write(bs);
 	}
 
+	public static void bencode(ByteBuffer bs, OutputStream out) throws IOException {
+		String l = Integer.toString(bs.remaining());
+		out.write(l.getBytes("UTF-8"));
+		out.write(':');
+		if (bs.hasArray()) {
+			out.write(bs.array(), bs.arrayOffset() + bs.position(), bs.remaining());
+		} else {
+			byte[] copy = new byte[bs.remaining()];
+			bs.duplicate().get(copy);
+			out.write(copy);
+		}
+	}
+
 	public static void bencode(Map<String, BEValue> m, OutputStream out)
 		throws IOException {
 		out.write('d');
@@ -0,0 +1,39 @@
+package com.solt.tscraper.bcodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the values of a B-encoded stream from a {@link BEventParser}, in
+ * the order they appear.
+ *
+ * <p>
+ * Every list and dictionary is reported by its start, its members and a
+ * matching {@link #end()}; dictionary members alternate between
+ * {@link #key(ByteBuffer)} and the value of that key. Byte buffers handed to
+ * the handler are only valid during the call and must be copied to be kept.
+ * </p>
+ */
+public interface BEventHandler {
+
+	void dictStart() throws IOException;
+
+	void listStart() throws IOException;
+
+	/**
+	 * A dictionary key, between the buffer's position and limit.
+	 */
+	void key(ByteBuffer key) throws IOException;
+
+	/**
+	 * A byte string value, between the buffer's position and limit.
+	 */
+	void bytes(ByteBuffer value) throws IOException;
+
+	void integer(long value) throws IOException;
+
+	/**
+	 * The end of the innermost open list or dictionary.
+	 */
+	void end() throws IOException;
+}
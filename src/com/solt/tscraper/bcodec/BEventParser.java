@@ -0,0 +1,276 @@
+package com.solt.tscraper.bcodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Resumable, event based parser of one B-encoded value.
+ *
+ * <p>
+ * Bytes are fed as they arrive, in chunks of any size, and every value is
+ * reported to a {@link BEventHandler} as soon as it is complete; nothing is
+ * built. The parser only keeps the stack of open containers and the part of
+ * a byte string or integer that straddles two chunks, so its memory is
+ * bounded by {@link #DEFAULT_MAX_DEPTH} and {@link #DEFAULT_MAX_STRING_LENGTH}
+ * whatever the size of the input. Byte strings lying whole in a chunk are
+ * reported as views of it.
+ * </p>
+ *
+ * <p>
+ * Integers are reported as <code>long</code>; larger ones are rejected.
+ * </p>
+ */
+public class BEventParser {
+
+	/** Default cap on the nesting of lists and dictionaries. */
+	public static final int DEFAULT_MAX_DEPTH = 256;
+
+	/** Default cap on the length of a byte string, in bytes. */
+	public static final int DEFAULT_MAX_STRING_LENGTH = 1024 * 1024;
+
+	private enum State {
+		VALUE,
+		STRING_LENGTH,
+		STRING_DATA,
+		INTEGER_SIGN,
+		INTEGER_DIGITS,
+		DONE
+	}
+
+	private final BEventHandler handler;
+	private final int maxDepth;
+	private final int maxStringLength;
+	private State state;
+	// Open containers, and for dictionaries whether a key comes next.
+	private byte[] containers;
+	private boolean[] keyNext;
+	private int depth;
+	private boolean key;
+	private int length;
+	private byte[] string;
+	private int buffered;
+	private long number;
+	private boolean negative;
+	private int digits;
+	private boolean leadingZero;
+
+	public BEventParser(BEventHandler handler) {
+		this(handler, DEFAULT_MAX_DEPTH, DEFAULT_MAX_STRING_LENGTH);
+	}
+
+	public BEventParser(BEventHandler handler, int maxDepth, int maxStringLength) {
+		this.handler = handler;
+		this.maxDepth = maxDepth;
+		this.maxStringLength = maxStringLength;
+		this.containers = new byte[Math.min(8, maxDepth)];
+		this.keyNext = new boolean[this.containers.length];
+		this.string = new byte[0];
+		reset();
+	}
+
+	/**
+	 * Forgets the current value to parse a new one.
+	 */
+	public void reset() {
+		state = State.VALUE;
+		depth = 0;
+		buffered = 0;
+	}
+
+	/**
+	 * Consumes bytes from the buffer until it is empty or the value is
+	 * complete. Bytes following a complete value are left in the buffer.
+	 *
+	 * @return <code>true</code> once the value is complete.
+	 * @throws InvalidBEncodingException If the input is not B-encoded or
+	 * exceeds the parser's limits.
+	 */
+	public boolean feed(ByteBuffer data) throws IOException {
+		while (state != State.DONE && data.hasRemaining()) {
+			switch (state) {
+			case VALUE:
+				value(data.get() & 0xFF);
+				break;
+			case STRING_LENGTH:
+				stringLength(data);
+				break;
+			case STRING_DATA:
+				stringData(data);
+				break;
+			case INTEGER_SIGN:
+			case INTEGER_DIGITS:
+				integer(data);
+				break;
+			default:
+				throw new IllegalStateException("Invalid parser state " + state);
+			}
+		}
+		return state == State.DONE;
+	}
+
+	/**
+	 * Signals the end of the input.
+	 *
+	 * @throws EOFException If the value was cut short.
+	 */
+	public void endOfStream() throws EOFException {
+		if (state != State.DONE) {
+			throw new EOFException();
+		}
+	}
+
+	public boolean isComplete() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * Returns the number of lists and dictionaries currently open.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	private void value(int c) throws IOException {
+		boolean dictionary = depth > 0 && containers[depth - 1] == 'd';
+		if (c == 'e' && depth > 0) {
+			if (dictionary && !keyNext[depth - 1]) {
+				throw new InvalidBEncodingException("Dictionary key without value");
+			}
+			--depth;
+			valueDone();
+			handler.end();
+			return;
+		}
+		key = dictionary && keyNext[depth - 1];
+		if (key && (c < '0' || c > '9')) {
+			throw new InvalidBEncodingException("Dictionary keys must be strings");
+		}
+		if (dictionary) {
+			keyNext[depth - 1] = !keyNext[depth - 1];
+		}
+		if (c >= '0' && c <= '9') {
+			length = c - '0';
+			state = State.STRING_LENGTH;
+		} else if (c == 'i') {
+			number = 0;
+			negative = false;
+			digits = 0;
+			leadingZero = false;
+			state = State.INTEGER_SIGN;
+		} else if (c == 'l' || c == 'd') {
+			push(c);
+			if (c == 'd') {
+				handler.dictStart();
+			} else {
+				handler.listStart();
+			}
+		} else {
+			throw new InvalidBEncodingException("Unknown indicator '" + c + "'");
+		}
+	}
+
+	private void push(int c) throws InvalidBEncodingException {
+		if (depth == maxDepth) {
+			throw new InvalidBEncodingException("Nesting too deep");
+		}
+		if (depth == containers.length) {
+			int capacity = Math.min(depth * 2, maxDepth);
+			containers = Arrays.copyOf(containers, capacity);
+			keyNext = Arrays.copyOf(keyNext, capacity);
+		}
+		containers[depth] = (byte) c;
+		keyNext[depth++] = true;
+	}
+
+	private void valueDone() {
+		state = depth == 0 ? State.DONE : State.VALUE;
+	}
+
+	private void stringLength(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			int c = data.get() & 0xFF;
+			if (c == ':') {
+				buffered = 0;
+				if (length == 0) {
+					string(ByteBuffer.wrap(string, 0, 0));
+				} else {
+					state = State.STRING_DATA;
+				}
+				return;
+			}
+			if (c < '0' || c > '9') {
+				throw new InvalidBEncodingException("Colon expected, not '" + (char) c + "'");
+			}
+			if (length > (maxStringLength - (c - '0')) / 10) {
+				throw new InvalidBEncodingException("Byte string too long");
+			}
+			length = length * 10 + c - '0';
+		}
+	}
+
+	private void stringData(ByteBuffer data) throws IOException {
+		if (buffered == 0 && data.remaining() >= length) {
+			ByteBuffer view = data.duplicate();
+			view.limit(view.position() + length);
+			data.position(view.limit());
+			string(view);
+			return;
+		}
+		if (buffered == 0 && string.length < length) {
+			string = new byte[Math.min(Math.max(length, string.length * 2), maxStringLength)];
+		}
+		int count = Math.min(length - buffered, data.remaining());
+		data.get(string, buffered, count);
+		buffered += count;
+		if (buffered == length) {
+			buffered = 0;
+			string(ByteBuffer.wrap(string, 0, length));
+		}
+	}
+
+	private void string(ByteBuffer value) throws IOException {
+		valueDone();
+		if (key) {
+			handler.key(value);
+		} else {
+			handler.bytes(value);
+		}
+	}
+
+	private void integer(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			int c = data.get() & 0xFF;
+			if (c == '-' && state == State.INTEGER_SIGN) {
+				negative = true;
+				state = State.INTEGER_DIGITS;
+				continue;
+			}
+			state = State.INTEGER_DIGITS;
+			if (c == 'e') {
+				if (digits == 0) {
+					throw new InvalidBEncodingException("Integer without digits");
+				}
+				if (leadingZero && (digits > 1 || negative)) {
+					throw new InvalidBEncodingException("Invalid integer, leading zero or negative zero");
+				}
+				valueDone();
+				// Accumulated negatively, to reach Long.MIN_VALUE.
+				handler.integer(negative ? number : -number);
+				return;
+			}
+			if (c < '0' || c > '9') {
+				throw new InvalidBEncodingException("Integer should end with 'e'");
+			}
+			int digit = c - '0';
+			long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+			if (number < (limit + digit) / 10) {
+				throw new InvalidBEncodingException("Integer too large");
+			}
+			leadingZero |= digits == 0 && digit == 0;
+			number = number * 10 - digit;
+			++digits;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package com.solt.tscraper.bcodec;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A {@link BEValue} read from a {@link BETape} on demand.
+ *
+ * <p>
+ * Byte strings are views of the indexed buffer, numbers are parsed when
+ * asked for, and lists and dictionaries are views that create the values of
+ * their members as they are read. Nothing is cached: reading a member twice
+ * decodes it twice.
+ * </p>
+ */
+class LazyBEValue extends BEValue {
+
+	private final BETape tape;
+	private final int token;
+
+	LazyBEValue(BETape tape, int token) {
+		this.tape = tape;
+		this.token = token;
+	}
+
+	@Override
+	public Object getValue() {
+		try {
+			switch (tape.type(token)) {
+			case BETape.STRING:
+				return getByteBuffer();
+			case BETape.INTEGER:
+				return getNumber();
+			case BETape.LIST:
+				return getList();
+			default:
+				return getMap();
+			}
+		} catch (InvalidBEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String getString(String encoding) throws InvalidBEncodingException {
+		ByteBuffer view = getByteBuffer();
+		try {
+			if (view.hasArray()) {
+				return new String(view.array(), view.arrayOffset() + view.position(),
+					view.remaining(), encoding);
+			}
+			return new String(getBytes(), encoding);
+		} catch (UnsupportedEncodingException uee) {
+			throw new InternalError(uee.toString());
+		}
+	}
+
+	@Override
+	public byte[] getBytes() throws InvalidBEncodingException {
+		ByteBuffer view = getByteBuffer();
+		byte[] bytes = new byte[view.remaining()];
+		view.get(bytes);
+		return bytes;
+	}
+
+	@Override
+	public ByteBuffer getByteBuffer() throws InvalidBEncodingException {
+		expect(BETape.STRING, "byte string");
+		ByteBuffer view = tape.getData().duplicate();
+		view.clear();
+		view.limit(tape.end(token));
+		view.position(tape.start(token));
+		return view;
+	}
+
+	@Override
+	public ByteBuffer getEncoded() {
+		int start = tape.encodedStart(token);
+		int end = tape.end(token);
+		if (tape.type(token) == BETape.INTEGER) {
+			// The closing 'e'.
+			++end;
+		}
+		ByteBuffer view = tape.getData().duplicate();
+		view.clear();
+		view.limit(end);
+		view.position(start);
+		return view;
+	}
+
+	@Override
+	public Number getNumber() throws InvalidBEncodingException {
+		expect(BETape.INTEGER, "Number");
+		try {
+			return Long.valueOf(parseLong());
+		} catch (ArithmeticException overflow) {
+			ByteBuffer data = tape.getData();
+			byte[] chars = new byte[tape.end(token) - tape.start(token)];
+			for (int i = 0; i < chars.length; ++i) {
+				chars[i] = data.get(tape.start(token) + i);
+			}
+			return new BigInteger(new String(chars, StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Override
+	public long getLong() throws InvalidBEncodingException {
+		expect(BETape.INTEGER, "Number");
+		try {
+			return parseLong();
+		} catch (ArithmeticException overflow) {
+			return getNumber().longValue();
+		}
+	}
+
+	/**
+	 * Parses the integer, which the tape validated.
+	 *
+	 * @throws ArithmeticException If it does not fit a long.
+	 */
+	private long parseLong() {
+		ByteBuffer data = tape.getData();
+		int position = tape.start(token);
+		int end = tape.end(token);
+		boolean negative = data.get(position) == '-';
+		if (negative) {
+			++position;
+		}
+		// Accumulated negatively, so that Long.MIN_VALUE fits.
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		while (position < end) {
+			int digit = data.get(position++) - '0';
+			if (value < (limit + digit) / 10) {
+				throw new ArithmeticException("long overflow");
+			}
+			value = value * 10 - digit;
+		}
+		return negative ? value : -value;
+	}
+
+	@Override
+	public List<BEValue> getList() throws InvalidBEncodingException {
+		expect(BETape.LIST, "List<BEValue>");
+		return new TapeList();
+	}
+
+	@Override
+	public Map<String, BEValue> getMap() throws InvalidBEncodingException {
+		expect(BETape.DICTIONARY, "Map<String, BEValue>");
+		return new TapeMap();
+	}
+
+	private void expect(int type, String name) throws InvalidBEncodingException {
+		if (tape.type(token) != type) {
+			throw new InvalidBEncodingException("Expected " + name + " !");
+		}
+	}
+
+	/**
+	 * The members of a list, located once when the view is created.
+	 */
+	private class TapeList extends AbstractList<BEValue> implements RandomAccess {
+		private final int[] members;
+
+		TapeList() {
+			int size = 0;
+			for (int t = token + 1; t < tape.next(token); t = tape.next(t)) {
+				++size;
+			}
+			this.members = new int[size];
+			int i = 0;
+			for (int t = token + 1; t < tape.next(token); t = tape.next(t)) {
+				members[i++] = t;
+			}
+		}
+
+		@Override
+		public BEValue get(int index) {
+			return new LazyBEValue(tape, members[index]);
+		}
+
+		@Override
+		public int size() {
+			return members.length;
+		}
+	}
+
+	/**
+	 * The entries of a dictionary. Lookups compare the encoded key with the
+	 * keys on the tape, without decoding them.
+	 */
+	private class TapeMap extends AbstractMap<String, BEValue> {
+		private int size = -1;
+
+		@Override
+		public BEValue get(Object key) {
+			int value = find(key);
+			return value < 0 ? null : new LazyBEValue(tape, value);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return find(key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			if (size < 0) {
+				int pairs = 0;
+				for (int t = token + 1; t < tape.next(token); t = tape.next(t + 1)) {
+					++pairs;
+				}
+				size = pairs;
+			}
+			return size;
+		}
+
+		@Override
+		public Set<Map.Entry<String, BEValue>> entrySet() {
+			return new AbstractSet<Map.Entry<String, BEValue>>() {
+				@Override
+				public Iterator<Map.Entry<String, BEValue>> iterator() {
+					return new Iterator<Map.Entry<String, BEValue>>() {
+						private int key = token + 1;
+
+						@Override
+						public boolean hasNext() {
+							return key < tape.next(token);
+						}
+
+						@Override
+						public Map.Entry<String, BEValue> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							int value = key + 1;
+							Map.Entry<String, BEValue> entry = new SimpleImmutableEntry<String, BEValue>(
+								decodeKey(key), new LazyBEValue(tape, value));
+							key = tape.next(value);
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return TapeMap.this.size();
+				}
+			};
+		}
+
+		/**
+		 * Returns the token of the value of the key, or -1.
+		 */
+		private int find(Object key) {
+			if (!(key instanceof String)) {
+				return -1;
+			}
+			byte[] encoded = ((String) key).getBytes(tape.getKeyEncoding());
+			ByteBuffer data = tape.getData();
+			for (int t = token + 1; t < tape.next(token); t = tape.next(t + 1)) {
+				int start = tape.start(t);
+				if (tape.end(t) - start != encoded.length) {
+					continue;
+				}
+				int i = 0;
+				while (i < encoded.length && data.get(start + i) == encoded[i]) {
+					++i;
+				}
+				if (i == encoded.length) {
+					return t + 1;
+				}
+			}
+			return -1;
+		}
+
+		private String decodeKey(int key) {
+			ByteBuffer data = tape.getData();
+			int start = tape.start(key);
+			int length = tape.end(key) - start;
+			if (data.hasArray()) {
+				return new String(data.array(), data.arrayOffset() + start, length,
+					tape.getKeyEncoding());
+			}
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; ++i) {
+				bytes[i] = data.get(start + i);
+			}
+			return new String(bytes, tape.getKeyEncoding());
+		}
+	}
+}
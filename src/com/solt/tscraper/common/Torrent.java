@@ -15,7 +15,6 @@
  */
 package com.solt.tscraper.common;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -49,7 +48,7 @@ import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.solt.tscraper.bcodec.BDecoder;
+import com.solt.tscraper.bcodec.BETape;
 import com.solt.tscraper.bcodec.BEValue;
 import com.solt.tscraper.bcodec.BEncoder;
 
@@ -129,20 +128,22 @@ public class Torrent {
 	 *
 	 * @param torrent The meta-info byte data.
 	 * @param seeder Whether we'll be seeding for this torrent or not.
-	 * @throws IOException When the info dictionary can't be read or
-	 * encoded and hashed back to create the torrent's SHA-1 hash.
+	 * @throws IOException When the info dictionary can't be read.
 	 */
 	public Torrent(byte[] torrent, boolean seeder) throws IOException {
 		this.encoded = torrent;
 		this.seeder = seeder;
 
-		this.decoded = BDecoder.bdecode(
-				new ByteArrayInputStream(this.encoded)).getMap();
+		// Only the entries read below are decoded, the piece hashes never.
+		this.decoded = BETape.bdecode(ByteBuffer.wrap(this.encoded)).getMap();
 
-		this.decoded_info = this.decoded.get("info").getMap();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		BEncoder.bencode(this.decoded_info, baos);
-		this.encoded_info = baos.toByteArray();
+		// The info hash is taken over the info dictionary as it was read,
+		// which may not be its canonical encoding.
+		BEValue info = this.decoded.get("info");
+		this.decoded_info = info.getMap();
+		ByteBuffer span = info.getEncoded();
+		this.encoded_info = Arrays.copyOfRange(this.encoded,
+			span.position(), span.limit());
 		this.info_hash = Torrent.hash(this.encoded_info);
 		this.hex_info_hash = Torrent.byteArrayToHexString(this.info_hash);
 
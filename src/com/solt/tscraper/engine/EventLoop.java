@@ -0,0 +1,480 @@
+package com.solt.tscraper.engine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.tracker.ScrapeException;
+import com.solt.tscraper.tracker.http.HTTPTrackerScraper;
+import com.solt.tscraper.tracker.udp.UDPTrackerMessages;
+import com.solt.tscraper.tracker.udp.UDPTrackerScraper;
+import com.solt.tscraper.util.BufferPool;
+import com.solt.tscraper.util.Pair;
+
+/**
+ * A single-threaded selector loop of a {@link ScrapeEngine}.
+ *
+ * <p>
+ * One loop owns one {@link Selector} and one {@link DatagramChannel} for its
+ * whole lifetime, and the trackers its {@link EventLoopGroup} assigns to it.
+ * The trackers are scheduled by the {@link TrackerScheduler} the loop
+ * extends; the loop supplies the I/O. HTTP scrapes run on non-blocking
+ * keep-alive connections, pooled per tracker host and registered with the
+ * same selector. HTTPS trackers are scraped the same way, with TLS run by an
+ * {@link javax.net.ssl.SSLEngine} per connection and sessions resumed per
+ * host.
+ * </p>
+ *
+ * <p>
+ * Requests and reads use direct buffers borrowed from the loop's
+ * {@link BufferPool}, so steady-state scraping allocates next to no I/O
+ * memory.
+ * </p>
+ *
+ * <p>
+ * Transaction ids carry the index of their loop in their low bits. When the
+ * loops share a port, a reply the kernel delivers to the wrong socket is
+ * copied into a pooled buffer and handed over to its owner, which gives the
+ * buffer back once the reply is handled.
+ * </p>
+ */
+class EventLoop extends TrackerScheduler implements Runnable {
+
+	private static final Logger logger =
+		LoggerFactory.getLogger(EventLoop.class);
+
+	private final EventLoopGroup group;
+	private final boolean reusePort;
+	private final Selector selector;
+	private final DatagramChannel udpChannel;
+	private final SelectionKey udpKey;
+	private final Queue<Pair<ByteBuffer, SocketAddress>> udpWriteQueue;
+	private final Queue<Runnable> tasks;
+	private final HTTPConnectionPool httpPool;
+	private final int udpReadBudget;
+	private volatile boolean running;
+
+	/**
+	 * @param config The timeouts, budgets and socket options of the loop.
+	 * @param tls Creates the TLS engines of HTTPS connections.
+	 * @param group The loops sharing the engine.
+	 * @param index The position of this loop in the group.
+	 * @param port The UDP port to bind, 0 for an ephemeral one.
+	 */
+	EventLoop(ScrapeEngineConfig config, TLSContext tls, EventLoopGroup group,
+			int index, int port) throws IOException {
+		super(config, index, config.getEventLoops());
+		this.group = group;
+		this.udpReadBudget = config.getUdpReadBudget();
+		this.selector = Selector.open();
+		DatagramChannel channel = null;
+		try {
+			channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			this.reusePort = config.isReusePort() && setReusePort(channel);
+			if (config.getUdpReceiveBufferSize() > 0) {
+				channel.setOption(StandardSocketOptions.SO_RCVBUF,
+						config.getUdpReceiveBufferSize());
+			}
+			if (config.getUdpSendBufferSize() > 0) {
+				channel.setOption(StandardSocketOptions.SO_SNDBUF,
+						config.getUdpSendBufferSize());
+			}
+			channel.bind(port == 0 ? null : new InetSocketAddress(port));
+			this.udpKey = channel.register(selector, SelectionKey.OP_READ);
+			this.udpChannel = channel;
+		} catch (IOException | RuntimeException e) {
+			selector.close();
+			if (channel != null) {
+				channel.close();
+			}
+			throw e;
+		}
+		this.udpWriteQueue = new LinkedList<>();
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.httpPool = new HTTPConnectionPool(tls, getBuffers());
+		this.running = true;
+	}
+
+	/**
+	 * Enables <code>SO_REUSEPORT</code>, looked up by name as it is missing
+	 * from {@link StandardSocketOptions} before Java 9.
+	 *
+	 * @return <code>false</code> if the platform does not support it.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean setReusePort(DatagramChannel channel) throws IOException {
+		for (SocketOption<?> option : channel.supportedOptions()) {
+			if (option.name().equals("SO_REUSEPORT") && option.type() == Boolean.class) {
+				channel.setOption((SocketOption<Boolean>) option, true);
+				return true;
+			}
+		}
+		logger.warn("SO_REUSEPORT is not supported, event loops use a UDP port each");
+		return false;
+	}
+
+	/**
+	 * Returns whether the UDP socket was opened with <code>SO_REUSEPORT</code>.
+	 */
+	boolean isReusePort() {
+		return reusePort;
+	}
+
+	int getLocalPort() throws IOException {
+		return ((InetSocketAddress) udpChannel.getLocalAddress()).getPort();
+	}
+
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	void wakeUp() {
+		selector.wakeup();
+	}
+
+	@Override
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select(getTimer().getDelay(System.currentTimeMillis()));
+				processSubmissions();
+				processTasks();
+				processCancellations();
+				processSelectedKeys();
+				getTimer().expire(System.currentTimeMillis());
+			}
+		} catch (IOException e) {
+			logger.error("Scrape event loop failed", e);
+		} finally {
+			closeIOResources();
+		}
+	}
+
+	/**
+	 * Runs the work handed over by other threads, such as answers of the
+	 * host resolver.
+	 */
+	private void processTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	@Override
+	TrackerExchange newHTTPExchange(HTTPTrackerSession session, List<ScrapeJob> jobs,
+			URL url) {
+		return new HTTPExchange(session, jobs, HTTPTrackerScraper.createScrapeRequest(
+				url, true, true, getBuffers()));
+	}
+
+	@Override
+	void startHTTP(TrackerExchange exchange) {
+		start((HTTPExchange) exchange);
+	}
+
+	/**
+	 * Closes the connection of an exchange aborted half way, which cannot be
+	 * reused, and gives its request back to the pool.
+	 */
+	@Override
+	void closeHTTP(TrackerExchange exchange) {
+		HTTPExchange http = (HTTPExchange) exchange;
+		if (http.getConnection() != null) {
+			closeConnection(http.getConnection());
+		}
+		if (http.getTimeout() != null) {
+			http.getTimeout().cancel();
+		}
+		getBuffers().release(http.getRequest());
+	}
+
+	/**
+	 * Sends the exchange on a pooled connection, or leaves it waiting in the
+	 * pool while the tracker host is at its connection cap.
+	 */
+	private void start(HTTPExchange exchange) {
+		HTTPConnection connection;
+		try {
+			connection = httpPool.lease(exchange.getSession(), selector);
+		} catch (IOException | RuntimeException e) {
+			finish(exchange, null, e);
+			return;
+		}
+		if (connection == null) {
+			httpPool.await(exchange);
+		} else {
+			send(exchange, connection);
+		}
+	}
+
+	private void send(HTTPExchange exchange, HTTPConnection connection) {
+		connection.send(exchange);
+		if (exchange.getTimeout() == null) {
+			exchange.setTimeout(getTimer().schedule(() -> finish(exchange, null,
+					new ScrapeException("Timeout while scraping to tracker: "
+							+ exchange.getSession().getTracker())),
+					System.currentTimeMillis() + getTimeout()));
+		}
+	}
+
+	/**
+	 * Hands a connection whose response was read to the next exchange waiting
+	 * for its host, or parks it in the pool.
+	 */
+	private void recycle(HTTPConnection connection) {
+		if (!connection.isReusable()) {
+			closeConnection(connection);
+			return;
+		}
+		connection.detach();
+		HTTPExchange next = nextWaiting(connection);
+		if (next != null) {
+			send(next, connection);
+		} else if (httpPool.release(connection)) {
+			connection.setIdleTimeout(getTimer().schedule(() -> closeConnection(connection),
+					System.currentTimeMillis() + httpPool.getIdleTimeout()));
+		} else {
+			closeConnection(connection);
+		}
+	}
+
+	private HTTPExchange nextWaiting(HTTPConnection connection) {
+		HTTPExchange next;
+		while ((next = httpPool.nextWaiting(connection.getOrigin())) != null) {
+			if (!allDone(next.getJobs())) {
+				return next;
+			}
+		}
+		return null;
+	}
+
+	private void closeConnection(HTTPConnection connection) {
+		HTTPExchange exchange = connection.getExchange();
+		if (exchange != null) {
+			exchange.setConnection(null);
+		}
+		connection.close();
+		httpPool.closed(connection);
+		// The host is below its cap again.
+		HTTPExchange next = nextWaiting(connection);
+		if (next != null) {
+			start(next);
+		}
+	}
+
+	/**
+	 * Fails the exchange, unless a reused connection was closed by the
+	 * tracker before it answered: the request is then sent once more on a
+	 * fresh connection.
+	 */
+	private void failed(HTTPExchange exchange, Throwable cause) {
+		HTTPConnection connection = exchange.getConnection();
+		if (connection != null && connection.getServed() > 0
+				&& !connection.hasResponse() && !exchange.isRetried()) {
+			logger.debug("Stale connection to {}, sending again",
+					exchange.getSession().getTracker());
+			exchange.setRetried(true);
+			closeConnection(connection);
+			start(exchange);
+			return;
+		}
+		finish(exchange, null, cause);
+	}
+
+	/**
+	 * Sends a datagram, or queues it while the socket's send buffer is full.
+	 * The buffer goes back to the pool once sent.
+	 */
+	@Override
+	void sendUDP(ByteBuffer buffer, InetSocketAddress address) {
+		if (udpWriteQueue.isEmpty()) {
+			try {
+				if (udpChannel.send(buffer, address) > 0) {
+					getBuffers().release(buffer);
+					return;
+				}
+			} catch (IOException e) {
+				logger.warn("Error sending datagram to tracker at {}: {}",
+						address, e.getMessage());
+				getBuffers().release(buffer);
+				return;
+			}
+		}
+		udpWriteQueue.add(Pair.of(buffer, address));
+		udpKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+		while (keyIterator.hasNext()) {
+			SelectionKey key = keyIterator.next();
+			keyIterator.remove();
+			if (!key.isValid()) {
+				continue;
+			}
+			SelectableChannel channel = key.channel();
+			if (channel instanceof DatagramChannel) {
+				try {
+					if (key.isReadable()) {
+						readUDP();
+					}
+					if (key.isValid() && key.isWritable()) {
+						writeUDP();
+					}
+				} catch (IOException e) {
+					logger.warn("Error on UDP tracker channel: {}", e.getMessage());
+				}
+			} else if (channel instanceof SocketChannel) {
+				HTTPConnection connection = (HTTPConnection) key.attachment();
+				HTTPExchange exchange = connection.getExchange();
+				try {
+					if (key.isConnectable()) {
+						connection.finishConnect();
+					} else if (exchange == null) {
+						// An idle connection got readable: unless TLS had
+						// something to say, the tracker closed it.
+						if (!connection.readIdle()) {
+							closeConnection(connection);
+						}
+					} else if (key.isWritable()) {
+						connection.write();
+					} else if (key.isReadable() && connection.read()) {
+						Map<ByteBuffer, TorrentState> states = connection.parseResponse();
+						recycle(connection);
+						finish(exchange, states, null);
+					}
+				} catch (IOException | RuntimeException e) {
+					if (exchange != null) {
+						failed(exchange, e);
+					} else {
+						closeConnection(connection);
+					}
+				}
+			}
+		}
+	}
+
+	private void writeUDP() throws IOException {
+		Pair<ByteBuffer, SocketAddress> writeTask;
+		while ((writeTask = udpWriteQueue.peek()) != null) {
+			if (udpChannel.send(writeTask.getLeft(), writeTask.getRight()) == 0) {
+				// The socket's send buffer is full, wait for the next round.
+				return;
+			}
+			udpWriteQueue.poll();
+			getBuffers().release(writeTask.getLeft());
+		}
+		udpKey.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Receives datagrams until the socket would block or the read budget is
+	 * spent, all into one borrowed buffer. Datagrams left over keep the
+	 * socket readable for the next round of the selector.
+	 */
+	private void readUDP() throws IOException {
+		ByteBuffer buffer = getBuffers().acquire(UDPTrackerScraper.MAX_SCRAPE_RESPONSE_LENGTH);
+		try {
+			for (int i = 0; i < udpReadBudget; ++i) {
+				buffer.clear();
+				if (!readUDP(buffer)) {
+					break;
+				}
+			}
+		} finally {
+			getBuffers().release(buffer);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if no datagram was pending.
+	 */
+	private boolean readUDP(ByteBuffer buffer) throws IOException {
+		SocketAddress address = udpChannel.receive(buffer);
+		if (address == null) {
+			return false;
+		}
+		buffer.flip();
+		if (buffer.remaining() < UDPTrackerMessages.REPLY_HEADER_LENGTH) {
+			return true;
+		}
+		int owner = loopOf(UDPTrackerMessages.getTransactionId(buffer));
+		if (owner != getIndex() && reusePort && owner < group.size()) {
+			ByteBuffer copy = getBuffers().acquire(buffer.remaining());
+			copy.put(buffer).flip();
+			group.get(owner).handOver(copy, address, this);
+		} else {
+			received(buffer, address);
+		}
+		return true;
+	}
+
+	/**
+	 * Queues a reply received by another loop of the group on its socket.
+	 * The buffer belongs to the pool of that loop and goes back to it.
+	 */
+	void handOver(ByteBuffer reply, SocketAddress address, EventLoop lender) {
+		tasks.add(() -> {
+			try {
+				received(reply, address);
+			} finally {
+				lender.giveBack(reply);
+			}
+		});
+		selector.wakeup();
+	}
+
+	/**
+	 * Takes back a buffer lent by {@link #handOver}. It is released on the
+	 * next round of the loop, there is no hurry to wake it up.
+	 */
+	private void giveBack(ByteBuffer buffer) {
+		tasks.add(() -> getBuffers().release(buffer));
+	}
+
+	void closeIOResources() {
+		failAll();
+		for (HTTPConnection connection : httpPool.clear()) {
+			connection.close();
+		}
+		Pair<ByteBuffer, SocketAddress> writeTask;
+		while ((writeTask = udpWriteQueue.poll()) != null) {
+			getBuffers().release(writeTask.getLeft());
+		}
+		try {
+			udpChannel.close();
+			selector.close();
+		} catch (IOException e) {
+			logger.warn("Error closing scrape event loop", e);
+		}
+	}
+}
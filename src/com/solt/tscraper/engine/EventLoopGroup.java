@@ -0,0 +1,161 @@
+package com.solt.tscraper.engine;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.solt.tscraper.util.Pair;
+
+/**
+ * The event loops of a {@link ScrapeEngine}, one thread each.
+ *
+ * <p>
+ * Trackers are sharded over the loops by host and port, so every tracker,
+ * with its connection ids, transactions and HTTP connections, is owned by
+ * exactly one loop and needs no locking. A job with trackers on several
+ * loops is handed to each of them with its share of the trackers.
+ * </p>
+ *
+ * <p>
+ * By default every loop binds an ephemeral port of its own, so the replies
+ * of a tracker come back to the socket of the loop owning it. With
+ * <code>SO_REUSEPORT</code>, the first loop binds an ephemeral port and the
+ * others bind the same one; the kernel then spreads the replies over the
+ * sockets by address, regardless of their owner, and most of them take a
+ * hand-over between loops.
+ * </p>
+ */
+class EventLoopGroup implements ScrapeTransport {
+
+	private final EventLoop[] loops;
+
+	/**
+	 * Opens the sockets of all loops. The loops run once {@link #start()} is
+	 * called.
+	 */
+	EventLoopGroup(ScrapeEngineConfig config, TLSContext tls) throws IOException {
+		this.loops = new EventLoop[config.getEventLoops()];
+		int port = 0;
+		try {
+			for (int i = 0; i < loops.length; ++i) {
+				loops[i] = new EventLoop(config, tls, this, i, port);
+				if (i == 0 && loops.length > 1 && loops[0].isReusePort()) {
+					port = loops[0].getLocalPort();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			for (EventLoop loop : loops) {
+				if (loop != null) {
+					loop.closeIOResources();
+				}
+			}
+			throw e;
+		}
+	}
+
+	void start() {
+		for (int i = 0; i < loops.length; ++i) {
+			Thread thread = new Thread(loops[i], loops.length == 1
+					? "tscraper-event-loop" : "tscraper-event-loop-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	int size() {
+		return loops.length;
+	}
+
+	EventLoop get(int index) {
+		return loops[index];
+	}
+
+	@Override
+	public void submit(List<ScrapeJob> jobs) {
+		List<List<Pair<ScrapeJob, List<URI>>>> batches = share(jobs, loops.length);
+		for (int i = 0; i < batches.size(); ++i) {
+			if (!batches.get(i).isEmpty()) {
+				loops[i].submit(batches.get(i));
+			}
+		}
+	}
+
+	@Override
+	public void cancel(ScrapeJob job) {
+		if (loops.length == 1) {
+			loops[0].cancel(job);
+			return;
+		}
+		List<List<URI>> shares = split(job);
+		for (int i = 0; i < shares.size(); ++i) {
+			if (shares.get(i) != null) {
+				loops[i].cancel(job);
+			}
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		for (EventLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+	private List<List<URI>> split(ScrapeJob job) {
+		return split(job.getTrackers(), loops.length);
+	}
+
+	/**
+	 * Splits a batch of jobs by owning loop, each job with its share of the
+	 * trackers of that loop.
+	 */
+	static List<List<Pair<ScrapeJob, List<URI>>>> share(List<ScrapeJob> jobs, int loops) {
+		List<List<Pair<ScrapeJob, List<URI>>>> batches = new ArrayList<>(loops);
+		for (int i = 0; i < loops; ++i) {
+			batches.add(new ArrayList<>());
+		}
+		for (ScrapeJob job : jobs) {
+			if (loops == 1) {
+				batches.get(0).add(Pair.of(job, job.getTrackers()));
+				continue;
+			}
+			List<List<URI>> shares = split(job.getTrackers(), loops);
+			for (int i = 0; i < loops; ++i) {
+				if (shares.get(i) != null) {
+					batches.get(i).add(Pair.of(job, shares.get(i)));
+				}
+			}
+		}
+		return batches;
+	}
+
+	/**
+	 * Splits the trackers by owning loop. Loops owning none of them get
+	 * <code>null</code>.
+	 */
+	static List<List<URI>> split(List<URI> trackers, int loops) {
+		List<List<URI>> shares = new ArrayList<>(Collections.nCopies(loops, null));
+		for (URI tracker : trackers) {
+			int index = loopOf(tracker, loops);
+			if (shares.get(index) == null) {
+				shares.set(index, new ArrayList<>());
+			}
+			shares.get(index).add(tracker);
+		}
+		return shares;
+	}
+
+	/**
+	 * Returns the loop owning the tracker. Trackers on the same host and port
+	 * share a loop, whatever their scheme or path.
+	 */
+	static int loopOf(URI tracker, int loops) {
+		String host = tracker.getHost();
+		int hash = host == null ? 0
+				: host.toLowerCase(Locale.ROOT).hashCode() * 31 + tracker.getPort();
+		return Math.floorMod(hash, loops);
+	}
+}
@@ -0,0 +1,313 @@
+package com.solt.tscraper.engine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.SSLEngine;
+
+import com.solt.tscraper.bcodec.BEventParser;
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.tracker.ScrapeException;
+import com.solt.tscraper.tracker.http.HTTPResponseParser;
+import com.solt.tscraper.tracker.http.ScrapeResponseHandler;
+import com.solt.tscraper.util.BufferPool;
+
+/**
+ * A non-blocking connection to an HTTP tracker, carrying one
+ * {@link HTTPExchange} at a time.
+ *
+ * <p>
+ * Responses are parsed incrementally by an {@link HTTPResponseParser} as
+ * bytes arrive, and their body by a {@link BEventParser}: the scrape
+ * results are collected entry by entry while the body downloads, and only
+ * for the torrents of the exchange. Responses framed by
+ * <code>Content-Length</code> or chunked encoding leave the connection
+ * reusable, unless the tracker asked to close it.
+ * </p>
+ *
+ * <p>
+ * Connections to HTTPS trackers run TLS through a {@link TLSChannel}; the
+ * handshake starts once the socket is connected and the request follows
+ * as soon as it completes.
+ * </p>
+ */
+class HTTPConnection {
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	private final String origin;
+	private final InetSocketAddress address;
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final TLSChannel tls;
+	private boolean connected;
+	private HTTPExchange exchange;
+	private ByteBuffer request;
+	private final BufferPool buffers;
+	private final HTTPResponseParser parser;
+	private BEventParser bodyParser;
+	private ScrapeResponseHandler scrape;
+	private boolean trailing;
+	private int served;
+	private HashedWheelTimer.Timeout idleTimeout;
+	private boolean closed;
+
+	private HTTPConnection(String origin, InetSocketAddress address,
+			SocketChannel channel, SSLEngine engine, Selector selector,
+			BufferPool buffers) throws IOException {
+		this.origin = origin;
+		this.address = address;
+		this.channel = channel;
+		this.buffers = buffers;
+		this.tls = engine == null ? null : new TLSChannel(channel, engine, buffers);
+		if (channel.connect(address)) {
+			this.connected = true;
+			this.key = channel.register(selector, 0, this);
+		} else {
+			this.key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+		}
+		this.parser = new HTTPResponseParser();
+		this.parser.setBodyConsumer(this::consume);
+	}
+
+	/**
+	 * Starts connecting to the tracker and registers the socket with the
+	 * selector.
+	 *
+	 * @param engine The TLS engine of an HTTPS connection, <code>null</code>
+	 * for plain HTTP.
+	 * @param buffers The pool the connection borrows its I/O buffers from.
+	 */
+	static HTTPConnection open(String origin, InetSocketAddress address,
+			SSLEngine engine, Selector selector, BufferPool buffers)
+			throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			return new HTTPConnection(origin, address, channel, engine, selector,
+					buffers);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the origin of the tracker, the key of the connection in its
+	 * pool.
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns the exchange in progress, or <code>null</code> while the
+	 * connection is idle.
+	 */
+	public HTTPExchange getExchange() {
+		return exchange;
+	}
+
+	/**
+	 * Returns how many responses were read on this connection.
+	 */
+	public int getServed() {
+		return served;
+	}
+
+	public HashedWheelTimer.Timeout getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(HashedWheelTimer.Timeout idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Sends the request of the exchange as soon as the socket is connected.
+	 */
+	void send(HTTPExchange exchange) {
+		this.exchange = exchange;
+		this.request = exchange.getRequest().duplicate();
+		this.parser.reset();
+		Set<ByteBuffer> infoHashes = new HashSet<>();
+		for (ScrapeJob job : exchange.getJobs()) {
+			infoHashes.add(ByteBuffer.wrap(job.getInfoHash()));
+		}
+		this.scrape = new ScrapeResponseHandler(infoHashes);
+		this.bodyParser = new BEventParser(scrape);
+		this.trailing = false;
+		exchange.setConnection(this);
+		if (connected) {
+			updateInterest();
+		}
+	}
+
+	/**
+	 * Parks the connection once its exchange is over. Reads stay enabled to
+	 * notice the tracker closing it.
+	 */
+	void detach() {
+		if (exchange != null) {
+			exchange.setConnection(null);
+			exchange = null;
+		}
+		request = null;
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+	void finishConnect() throws IOException {
+		// If the connection operation failed this will raise an IOException.
+		channel.finishConnect();
+		connected = true;
+		updateInterest();
+	}
+
+	void write() throws IOException {
+		if (tls != null) {
+			tls.write(request);
+		} else {
+			channel.write(request);
+		}
+		updateInterest();
+	}
+
+	/**
+	 * Returns <code>true</code> if any byte of the current response arrived.
+	 */
+	boolean hasResponse() {
+		return parser.isStarted();
+	}
+
+	/**
+	 * Feeds whatever is available on the socket to the parser.
+	 *
+	 * @return <code>true</code> once the whole response is parsed.
+	 */
+	boolean read() throws IOException {
+		ByteBuffer readBuffer = buffers.acquire(READ_BUFFER_SIZE);
+		try {
+			return read(readBuffer);
+		} finally {
+			buffers.release(readBuffer);
+		}
+	}
+
+	private boolean read(ByteBuffer readBuffer) throws IOException {
+		while (true) {
+			readBuffer.clear();
+			int numRead = tls != null ? tls.read(readBuffer) : channel.read(readBuffer);
+			if (numRead == -1) {
+				parser.endOfStream();
+				return true;
+			} else if (numRead == 0) {
+				// The TLS handshake may be waiting to write.
+				updateInterest();
+				return false;
+			}
+			readBuffer.flip();
+			if (parser.feed(readBuffer)) {
+				// Anything past the response was not asked for.
+				trailing = readBuffer.hasRemaining();
+				return true;
+			}
+		}
+	}
+
+	private void consume(ByteBuffer data) {
+		if (parser.getStatusCode() / 100 != 2) {
+			// Not a scrape response, parseResponse() reports the status.
+			return;
+		}
+		try {
+			bodyParser.feed(data);
+		} catch (IOException e) {
+			throw new ScrapeException("Could not decode tracker message (not B-encoded?)!", e);
+		}
+	}
+
+	/**
+	 * Consumes what an idle connection received.
+	 *
+	 * @return <code>false</code> if the tracker closed the connection or sent
+	 * bytes nobody asked for; it should be closed.
+	 */
+	boolean readIdle() throws IOException {
+		if (tls == null) {
+			return false;
+		}
+		// Servers may still send TLS session tickets after the response.
+		ByteBuffer readBuffer = buffers.acquire(READ_BUFFER_SIZE);
+		try {
+			return tls.read(readBuffer) == 0 && !tls.wantsWrite();
+		} finally {
+			buffers.release(readBuffer);
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if another request may be sent once the
+	 * current response is read.
+	 */
+	boolean isReusable() {
+		return parser.isComplete() && parser.isKeepAlive() && !trailing;
+	}
+
+	/**
+	 * Returns the scrape results read from the response, keyed by info hash.
+	 */
+	Map<ByteBuffer, TorrentState> parseResponse() throws IOException {
+		++served;
+		if (parser.getStatusCode() / 100 != 2) {
+			throw new ScrapeException("Unexpected HTTP status from tracker: "
+					+ parser.getStatusCode() + " " + parser.getReasonPhrase());
+		}
+		bodyParser.endOfStream();
+		return scrape.getStates();
+	}
+
+	/**
+	 * Asks for the readiness the connection waits for: writes while TLS or
+	 * request bytes are pending, reads otherwise.
+	 */
+	private void updateInterest() {
+		int ops = SelectionKey.OP_READ;
+		if (tls != null && tls.wantsWrite()) {
+			ops = SelectionKey.OP_WRITE;
+		} else if (request != null && request.hasRemaining()
+				&& (tls == null || !tls.wantsRead())) {
+			ops = SelectionKey.OP_WRITE;
+		}
+		key.interestOps(ops);
+	}
+
+	void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		parser.release();
+		if (tls != null) {
+			tls.release();
+		}
+		key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Ignore, nothing left to release.
+		}
+		if (idleTimeout != null) {
+			idleTimeout.cancel();
+		}
+	}
+}
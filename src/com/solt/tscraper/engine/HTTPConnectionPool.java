@@ -0,0 +1,188 @@
+package com.solt.tscraper.engine;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import com.solt.tscraper.util.BufferPool;
+
+/**
+ * Keep-alive connections to HTTP trackers, pooled per host.
+ *
+ * <p>
+ * Hosts are told apart by origin, see {@link HTTPTrackerSession#getOrigin()},
+ * so that HTTPS connections are only reused for the host name their
+ * certificate was checked against. At most
+ * {@link #getMaxConnectionsPerHost()} connections are open to one host;
+ * exchanges beyond that wait for a connection to come back. Of the
+ * connections coming back, up to {@link #getMaxIdlePerHost()} are kept idle
+ * for later exchanges, most recently used first. The pool is owned by one
+ * {@link EventLoop} and is not thread-safe.
+ * </p>
+ */
+class HTTPConnectionPool {
+
+	/** Default cap of open connections to one tracker host. */
+	static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+	/** Default cap of idle connections kept for one tracker host. */
+	static final int DEFAULT_MAX_IDLE_PER_HOST = 4;
+
+	/** Default time an idle connection is kept open, in ms. */
+	static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+	/**
+	 * Connections and waiting exchanges of one host.
+	 */
+	private static class Host {
+		final Deque<HTTPConnection> idle = new ArrayDeque<>();
+		final Queue<HTTPExchange> waiting = new ArrayDeque<>();
+		int open;
+	}
+
+	private final Map<String, Host> hosts;
+	private final TLSContext tls;
+	private final BufferPool buffers;
+	private final int maxConnectionsPerHost;
+	private final int maxIdlePerHost;
+	private final long idleTimeout;
+
+	/**
+	 * @param tls Creates the TLS engines of HTTPS connections.
+	 * @param buffers Lends the I/O buffers of the connections.
+	 */
+	HTTPConnectionPool(TLSContext tls, BufferPool buffers) {
+		this(tls, buffers, DEFAULT_MAX_CONNECTIONS_PER_HOST,
+				DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	HTTPConnectionPool(TLSContext tls, BufferPool buffers,
+			int maxConnectionsPerHost, int maxIdlePerHost, long idleTimeout) {
+		if (maxConnectionsPerHost < 1 || maxIdlePerHost < 0) {
+			throw new IllegalArgumentException("Invalid connection pool caps");
+		}
+		this.hosts = new HashMap<>();
+		this.tls = tls;
+		this.buffers = buffers;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.maxIdlePerHost = maxIdlePerHost;
+		this.idleTimeout = idleTimeout;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	public int getMaxIdlePerHost() {
+		return maxIdlePerHost;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Returns an idle connection to the tracker host, or opens a new one if
+	 * the host is under its cap. Idle connections to an address the host no
+	 * longer resolves to are closed.
+	 *
+	 * @return <code>null</code> if every allowed connection is busy.
+	 */
+	HTTPConnection lease(HTTPTrackerSession session, Selector selector)
+			throws IOException {
+		Host host = host(session.getOrigin());
+		HTTPConnection connection;
+		while ((connection = host.idle.pollFirst()) != null) {
+			if (connection.getIdleTimeout() != null) {
+				connection.getIdleTimeout().cancel();
+				connection.setIdleTimeout(null);
+			}
+			if (connection.getAddress().equals(session.getAddress())) {
+				return connection;
+			}
+			connection.close();
+			--host.open;
+		}
+		if (host.open >= maxConnectionsPerHost) {
+			return null;
+		}
+		connection = HTTPConnection.open(session.getOrigin(), session.getAddress(),
+				session.isSecure() ? tls.createEngine(session.getHost(), session.getPort())
+						: null, selector, buffers);
+		++host.open;
+		return connection;
+	}
+
+	/**
+	 * Queues the exchange until a connection to its tracker host is free.
+	 */
+	void await(HTTPExchange exchange) {
+		host(exchange.getSession().getOrigin()).waiting.add(exchange);
+	}
+
+	/**
+	 * Takes the next exchange waiting for the host, if any.
+	 */
+	HTTPExchange nextWaiting(String origin) {
+		Host host = hosts.get(origin);
+		return host == null ? null : host.waiting.poll();
+	}
+
+	/**
+	 * Keeps a connection whose exchange is over for reuse.
+	 *
+	 * @return <code>false</code> if the host already has enough idle
+	 * connections; the caller then closes it.
+	 */
+	boolean release(HTTPConnection connection) {
+		Host host = host(connection.getOrigin());
+		if (host.idle.size() >= maxIdlePerHost) {
+			return false;
+		}
+		host.idle.addFirst(connection);
+		return true;
+	}
+
+	/**
+	 * Forgets a connection that was closed.
+	 */
+	void closed(HTTPConnection connection) {
+		Host host = hosts.get(connection.getOrigin());
+		if (host == null) {
+			return;
+		}
+		host.idle.remove(connection);
+		--host.open;
+		if (host.open <= 0 && host.waiting.isEmpty()) {
+			hosts.remove(connection.getOrigin());
+		}
+	}
+
+	/**
+	 * Empties the pool, returning the idle connections to close.
+	 */
+	List<HTTPConnection> clear() {
+		List<HTTPConnection> idle = new ArrayList<>();
+		for (Iterator<Host> it = hosts.values().iterator(); it.hasNext();) {
+			idle.addAll(it.next().idle);
+			it.remove();
+		}
+		return idle;
+	}
+
+	private Host host(String origin) {
+		Host host = hosts.get(origin);
+		if (host == null) {
+			host = new Host();
+			hosts.put(origin, host);
+		}
+		return host;
+	}
+}
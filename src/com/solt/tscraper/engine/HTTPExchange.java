@@ -0,0 +1,105 @@
+package com.solt.tscraper.engine;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * One HTTP scrape request, covering every job whose info hash is carried by
+ * the request url.
+ *
+ * <p>
+ * The exchange runs on a pooled {@link HTTPConnection}; it waits in the pool
+ * while every connection to the tracker host is busy, and before that in
+ * the tracker's {@link TrackerLimiter} while the tracker is at its limit.
+ * </p>
+ */
+class HTTPExchange implements TrackerExchange {
+	private final HTTPTrackerSession session;
+	private final List<ScrapeJob> jobs;
+	private final ByteBuffer request;
+	private HTTPConnection connection;
+	private HashedWheelTimer.Timeout timeout;
+	private boolean retried;
+	private boolean admitted;
+	private long startedAt;
+
+	HTTPExchange(HTTPTrackerSession session, List<ScrapeJob> jobs, ByteBuffer request) {
+		this.session = session;
+		this.jobs = jobs;
+		this.request = request;
+	}
+
+	@Override
+	public HTTPTrackerSession getSession() {
+		return session;
+	}
+
+	@Override
+	public List<ScrapeJob> getJobs() {
+		return jobs;
+	}
+
+	/**
+	 * Returns the request bytes, borrowed from the loop's buffer pool until
+	 * the exchange is closed. Connections send a duplicate, so the request
+	 * can be sent again.
+	 */
+	public ByteBuffer getRequest() {
+		return request;
+	}
+
+	/**
+	 * Returns the connection carrying the exchange, or <code>null</code>
+	 * while it waits for one.
+	 */
+	public HTTPConnection getConnection() {
+		return connection;
+	}
+
+	public void setConnection(HTTPConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Returns the pending timeout of the exchange, if any.
+	 */
+	public HashedWheelTimer.Timeout getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(HashedWheelTimer.Timeout timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns <code>true</code> if the request was already sent again after
+	 * a reused connection turned out to be stale.
+	 */
+	public boolean isRetried() {
+		return retried;
+	}
+
+	public void setRetried(boolean retried) {
+		this.retried = retried;
+	}
+
+	@Override
+	public boolean isAdmitted() {
+		return admitted;
+	}
+
+	@Override
+	public void setAdmitted(boolean admitted) {
+		this.admitted = admitted;
+	}
+
+	@Override
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	@Override
+	public void setStartedAt(long startedAt) {
+		this.startedAt = startedAt;
+	}
+}
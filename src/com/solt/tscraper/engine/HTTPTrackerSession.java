@@ -0,0 +1,50 @@
+package com.solt.tscraper.engine;
+
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * Per-tracker state of an HTTP or HTTPS tracker inside an {@link EventLoop}.
+ * Pending jobs are dispatched as multi-hash scrape requests.
+ */
+class HTTPTrackerSession extends TrackerSession {
+	private final String host;
+	private final int port;
+	private final boolean secure;
+	private final String origin;
+
+	/**
+	 * @param host The host of the scrape url, checked against the server
+	 * certificate of HTTPS trackers.
+	 * @param port The port of the scrape url.
+	 * @param secure <code>true</code> if scrapes go over TLS.
+	 */
+	HTTPTrackerSession(URI tracker, String host, int port, boolean secure) {
+		super(tracker);
+		this.host = host;
+		this.port = port;
+		this.secure = secure;
+		this.origin = (secure ? "https://" : "http://") + host.toLowerCase(Locale.ROOT)
+				+ ":" + port;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public boolean isSecure() {
+		return secure;
+	}
+
+	/**
+	 * Returns the scheme, host and port of the scrape url. Trackers of the
+	 * same origin share their connections.
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+}
@@ -0,0 +1,191 @@
+package com.solt.tscraper.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel driven by the event loop.
+ *
+ * <p>
+ * Timeouts are hashed by deadline into a fixed ring of buckets, each covering
+ * one tick. Scheduling and cancelling are O(1), and advancing the wheel only
+ * looks at the buckets of the ticks that elapsed, so hundreds of thousands
+ * of pending exchanges cost nothing until they are due. Deadlines further
+ * away than one turn of the wheel wait for the matching number of rounds.
+ * </p>
+ *
+ * <p>
+ * The timer is not thread-safe: it must only be used by the thread running
+ * the loop. Timeouts never fire early, but may fire up to one tick late.
+ * </p>
+ */
+class HashedWheelTimer {
+
+	/**
+	 * A scheduled task.
+	 */
+	static final class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private long rounds;
+		private boolean cancelled;
+		private Bucket bucket;
+		private Timeout prev;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Prevents the task from running, if it did not run yet.
+		 */
+		public void cancel() {
+			cancelled = true;
+			if (bucket != null) {
+				bucket.remove(this);
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Doubly-linked list of the timeouts hashed to one slot.
+	 */
+	private final class Bucket {
+		private Timeout head;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			timeout.next = head;
+			if (head != null) {
+				head.prev = timeout;
+			}
+			head = timeout;
+			++size;
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			} else {
+				head = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			timeout.bucket = null;
+			timeout.prev = null;
+			timeout.next = null;
+			--size;
+		}
+	}
+
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long tickDuration;
+	private final long startTime;
+	/** Index of the next tick to process. */
+	private long tick;
+	private int size;
+
+	/**
+	 * @param tickDuration Length of one tick, in ms.
+	 * @param wheelSize Number of buckets, rounded up to a power of two.
+	 * @param startTime Time of tick zero, in ms.
+	 */
+	HashedWheelTimer(long tickDuration, int wheelSize, long startTime) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration must be positive");
+		}
+		if (wheelSize <= 0 || wheelSize > 1 << 30) {
+			throw new IllegalArgumentException("Invalid wheel size " + wheelSize);
+		}
+		int buckets = Integer.highestOneBit(wheelSize);
+		if (buckets < wheelSize) {
+			buckets <<= 1;
+		}
+		this.wheel = new Bucket[buckets];
+		for (int i = 0; i < buckets; ++i) {
+			this.wheel[i] = new Bucket();
+		}
+		this.mask = buckets - 1;
+		this.tickDuration = tickDuration;
+		this.startTime = startTime;
+	}
+
+	/**
+	 * Schedules the task to run once the given time is reached.
+	 *
+	 * @param deadline Absolute time, in ms.
+	 */
+	Timeout schedule(Runnable task, long deadline) {
+		Timeout timeout = new Timeout(task, deadline);
+		long elapsed = Math.max(deadline - startTime, 0);
+		long due = Math.max((elapsed + tickDuration - 1) / tickDuration, tick);
+		timeout.rounds = (due - tick) / wheel.length;
+		wheel[(int) (due & mask)].add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Returns the number of timeouts still pending.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns how long the loop may block before the wheel needs to advance,
+	 * in ms, or 0 when no timeout is pending.
+	 */
+	long getDelay(long now) {
+		if (size == 0) {
+			return 0;
+		}
+		return Math.max(startTime + tick * tickDuration - now, 1);
+	}
+
+	/**
+	 * Advances the wheel to the given time, running every task that is due.
+	 * Tasks may schedule or cancel other timeouts.
+	 */
+	void expire(long now) {
+		List<Timeout> expired = new ArrayList<>();
+		while (startTime + tick * tickDuration <= now) {
+			if (size == 0) {
+				// Nothing to visit, skip the idle ticks at once.
+				tick = Math.max((now - startTime) / tickDuration + 1, tick);
+				break;
+			}
+			Bucket bucket = wheel[(int) (tick & mask)];
+			Timeout timeout = bucket.head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.rounds <= 0) {
+					bucket.remove(timeout);
+					expired.add(timeout);
+				} else {
+					--timeout.rounds;
+				}
+				timeout = next;
+			}
+			++tick;
+			for (Timeout due : expired) {
+				// A task run before may have cancelled this one.
+				if (!due.cancelled) {
+					due.task.run();
+				}
+			}
+			expired.clear();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.solt.tscraper.engine;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.solt.tscraper.tracker.ScrapeException;
+
+/**
+ * Resolves tracker host names off the event loops and caches the answers.
+ *
+ * <p>
+ * Lookups run in parallel on a small pool of daemon threads. Every host is
+ * resolved once: concurrent requests for the same host share the pending
+ * lookup, successful answers are kept for {@link #POSITIVE_TTL} and failures
+ * for {@link #NEGATIVE_TTL}. The cache is shared by all engines of the
+ * process; expired answers are swept out of it as lookups come, at most
+ * once per TTL, so it only holds the hosts seen lately.
+ * </p>
+ */
+class HostResolver {
+
+	/** How long a resolved address is reused, in ms. */
+	static final long POSITIVE_TTL = TimeUnit.MINUTES.toMillis(5);
+
+	/** How long a failed lookup is remembered, in ms. */
+	static final long NEGATIVE_TTL = TimeUnit.SECONDS.toMillis(30);
+
+	private static final int RESOLVER_THREADS = 8;
+
+	private static final HostResolver instance = new HostResolver(
+			newExecutor(), POSITIVE_TTL, NEGATIVE_TTL);
+
+	/**
+	 * A lookup, pending or answered.
+	 */
+	private static class Entry {
+		final CompletableFuture<InetAddress> future = new CompletableFuture<>();
+		volatile long expiresAt;
+
+		boolean isExpired(long now) {
+			return future.isDone() && expiresAt <= now;
+		}
+	}
+
+	private final ConcurrentMap<String, Entry> cache;
+	private final Executor executor;
+	private final long positiveTtl;
+	private final long negativeTtl;
+	private final long purgeInterval;
+	private volatile long nextPurge;
+
+	HostResolver(Executor executor, long positiveTtl, long negativeTtl) {
+		this.cache = new ConcurrentHashMap<>();
+		this.executor = executor;
+		this.positiveTtl = positiveTtl;
+		this.negativeTtl = negativeTtl;
+		this.purgeInterval = Math.min(positiveTtl, negativeTtl);
+		this.nextPurge = System.currentTimeMillis() + purgeInterval;
+	}
+
+	static HostResolver getInstance() {
+		return instance;
+	}
+
+	private static Executor newExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(RESOLVER_THREADS,
+				RESOLVER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				new ThreadFactoryBuilder().setNameFormat("tscraper-resolver-%d")
+						.setDaemon(true).build());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Returns the address of the host. The future fails with a
+	 * {@link ScrapeException} if the host cannot be resolved; it must not be
+	 * cancelled, as it is shared with other callers.
+	 */
+	CompletableFuture<InetAddress> resolve(String host) {
+		long now = System.currentTimeMillis();
+		if (now >= nextPurge) {
+			purge(now);
+		}
+		while (true) {
+			Entry entry = cache.get(host);
+			if (entry != null && !entry.isExpired(now)) {
+				return entry.future;
+			}
+			Entry fresh = new Entry();
+			boolean installed = entry == null ? cache.putIfAbsent(host, fresh) == null
+					: cache.replace(host, entry, fresh);
+			if (installed) {
+				lookup(host, fresh);
+				return fresh.future;
+			}
+			// Another thread started a lookup first, share it.
+		}
+	}
+
+	/**
+	 * Drops the answers that have expired. Hosts still in use are looked up
+	 * again on their next request anyway.
+	 */
+	private void purge(long now) {
+		nextPurge = now + purgeInterval;
+		cache.values().removeIf(entry -> entry.isExpired(now));
+	}
+
+	/**
+	 * Returns the number of hosts cached, pending lookups included.
+	 */
+	int size() {
+		return cache.size();
+	}
+
+	private void lookup(String host, Entry entry) {
+		executor.execute(() -> {
+			try {
+				InetAddress address = InetAddress.getByName(host);
+				entry.expiresAt = System.currentTimeMillis() + positiveTtl;
+				entry.future.complete(address);
+			} catch (UnknownHostException | RuntimeException e) {
+				entry.expiresAt = System.currentTimeMillis() + negativeTtl;
+				entry.future.completeExceptionally(new ScrapeException(
+						"Could not resolve tracker host " + host, e));
+			}
+		});
+	}
+}
@@ -0,0 +1,525 @@
+package com.solt.tscraper.engine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.tracker.ScrapeException;
+import com.solt.tscraper.tracker.http.HTTPTrackerScraper;
+import com.solt.tscraper.tracker.udp.UDPTrackerMessages;
+import com.solt.tscraper.util.Pair;
+
+/**
+ * Scrape transport running on Netty.
+ *
+ * <p>
+ * The group has {@link ScrapeEngineConfig#getEventLoops()} loops and the
+ * trackers are sharded over them as in {@link EventLoopGroup}. Every loop
+ * runs a {@link TrackerScheduler} of its own, as the built-in loops do, so
+ * sessions, connection ids, retransmissions, tracker limits and the circuit
+ * breaker of the {@link TrackerHealthRegistry} behave the same on both
+ * transports; this class only supplies the I/O. Each loop binds a datagram
+ * channel, whose requests are written into pooled buffers and replies read
+ * in place by {@link UDPTrackerMessages}, and opens the HTTP channels of its
+ * trackers. HTTP scrapes use Netty's HTTP client codec with transparent
+ * decompression, HTTPS scrapes add an {@link SslHandler} in front. Channels
+ * are kept alive between scrapes, up to
+ * {@link HTTPConnectionPool#DEFAULT_MAX_IDLE_PER_HOST} idle ones per origin.
+ * <code>SO_REUSEPORT</code> is not used: the loops never share a port.
+ * </p>
+ *
+ * <p>
+ * The native epoll transport is used when the <code>tscraper.netty.epoll</code>
+ * system property is set and the platform supports it. It is off by default:
+ * the datagram channel of this Netty release busy-spins on recent kernels.
+ * </p>
+ */
+class NettyTransport implements ScrapeTransport {
+
+	private static final Logger logger =
+		LoggerFactory.getLogger(NettyTransport.class);
+
+	/** System property enabling the native epoll transport. */
+	static final String EPOLL_PROPERTY = "tscraper.netty.epoll";
+
+	/** Largest HTTP scrape response we aggregate, in bytes. */
+	private static final int MAX_HTTP_RESPONSE_LENGTH = 16 * 1024 * 1024;
+
+	private final io.netty.channel.EventLoopGroup group;
+	private final Shard[] shards;
+	private final TLSContext tls;
+	private final boolean epoll;
+
+	/**
+	 * Starts the loops and binds their datagram channels.
+	 *
+	 * @param config The loops, timeouts, limits and socket options.
+	 * @param tls Creates the TLS engines of HTTPS channels.
+	 */
+	NettyTransport(ScrapeEngineConfig config, TLSContext tls) throws IOException {
+		this.tls = tls;
+		this.epoll = Boolean.getBoolean(EPOLL_PROPERTY) && Epoll.isAvailable();
+		DefaultThreadFactory threadFactory =
+			new DefaultThreadFactory("tscraper-netty", true);
+		this.group = epoll ? new EpollEventLoopGroup(config.getEventLoops(), threadFactory)
+			: new NioEventLoopGroup(config.getEventLoops(), threadFactory);
+		logger.debug("Starting Netty scrape transport (loops: {}, epoll: {})",
+				config.getEventLoops(), epoll);
+		this.shards = new Shard[config.getEventLoops()];
+		try {
+			for (int i = 0; i < shards.length; ++i) {
+				shards[i] = new Shard(group.next(), config, i);
+			}
+		} catch (IOException | RuntimeException e) {
+			group.shutdownGracefully();
+			throw e;
+		}
+	}
+
+	@Override
+	public void submit(List<ScrapeJob> jobs) {
+		List<List<Pair<ScrapeJob, List<URI>>>> batches =
+			EventLoopGroup.share(jobs, shards.length);
+		for (int i = 0; i < batches.size(); ++i) {
+			if (!batches.get(i).isEmpty()) {
+				shards[i].submit(batches.get(i));
+			}
+		}
+	}
+
+	@Override
+	public void cancel(ScrapeJob job) {
+		if (shards.length == 1) {
+			shards[0].cancel(job);
+			return;
+		}
+		List<List<URI>> shares = EventLoopGroup.split(job.getTrackers(), shards.length);
+		for (int i = 0; i < shares.size(); ++i) {
+			if (shares.get(i) != null) {
+				shards[i].cancel(job);
+			}
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		for (Shard shard : shards) {
+			shard.shutdown();
+		}
+		group.shutdownGracefully();
+	}
+
+	/**
+	 * The trackers owned by one loop of the group. Only touched by that loop.
+	 */
+	private class Shard extends TrackerScheduler {
+		private final io.netty.channel.EventLoop loop;
+		private final Channel udpChannel;
+		private final Bootstrap httpBootstrap;
+		private final ScheduledFuture<?> ticks;
+		// Open HTTP channels without a scrape, by origin.
+		private final Map<String, ArrayDeque<Channel>> idleChannels;
+		// Set while a task processing the submissions is queued on the loop.
+		private final AtomicBoolean processing;
+
+		Shard(io.netty.channel.EventLoop loop, ScrapeEngineConfig config, int index)
+				throws IOException {
+			super(config, index, config.getEventLoops());
+			this.loop = loop;
+			this.processing = new AtomicBoolean();
+			this.idleChannels = new HashMap<>();
+
+			Bootstrap udpBootstrap = new Bootstrap()
+				.group(loop)
+				.channel(epoll ? EpollDatagramChannel.class : NioDatagramChannel.class)
+				.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.option(ChannelOption.MAX_MESSAGES_PER_READ, config.getUdpReadBudget())
+				.handler(new ChannelInitializer<Channel>() {
+					@Override
+					protected void initChannel(Channel ch) {
+						ch.pipeline().addLast(new UDPResponseHandler());
+					}
+				});
+			if (config.getUdpReceiveBufferSize() > 0) {
+				udpBootstrap.option(ChannelOption.SO_RCVBUF, config.getUdpReceiveBufferSize());
+			}
+			if (config.getUdpSendBufferSize() > 0) {
+				udpBootstrap.option(ChannelOption.SO_SNDBUF, config.getUdpSendBufferSize());
+			}
+			try {
+				this.udpChannel = udpBootstrap.bind(0).sync().channel();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while binding UDP channel", e);
+			} catch (RuntimeException e) {
+				throw new IOException("Could not bind UDP channel", e);
+			}
+
+			this.httpBootstrap = new Bootstrap()
+				.group(loop)
+				.channel(epoll ? EpollSocketChannel.class : NioSocketChannel.class)
+				.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getTimeout());
+
+			this.ticks = loop.scheduleAtFixedRate(
+					() -> getTimer().expire(System.currentTimeMillis()),
+					TICK_DURATION, TICK_DURATION, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Queues a task processing the submissions and cancellations, unless
+		 * one is queued already: jobs submitted until the loop gets to it are
+		 * processed together, so that they share their tracker exchanges.
+		 */
+		@Override
+		void wakeUp() {
+			if (processing.compareAndSet(false, true)) {
+				loop.execute(() -> {
+					// Cleared first: a job queued from now on needs another task.
+					processing.set(false);
+					processSubmissions();
+					processCancellations();
+				});
+			}
+		}
+
+		@Override
+		void execute(Runnable task) {
+			loop.execute(task);
+		}
+
+		void shutdown() {
+			loop.execute(() -> {
+				ticks.cancel(false);
+				failAll();
+				closeIdleChannels();
+				udpChannel.close();
+			});
+		}
+
+		/**
+		 * Sends the datagram straight from the pooled buffer, which goes
+		 * back to the pool once written.
+		 */
+		@Override
+		void sendUDP(ByteBuffer datagram, InetSocketAddress address) {
+			udpChannel.writeAndFlush(new DatagramPacket(Unpooled.wrappedBuffer(datagram),
+					address)).addListener((ChannelFutureListener) future ->
+						getBuffers().release(datagram));
+		}
+
+		@Override
+		TrackerExchange newHTTPExchange(HTTPTrackerSession session, List<ScrapeJob> jobs,
+				URL url) {
+			return new HTTPScrape(session, jobs, url);
+		}
+
+		@Override
+		void startHTTP(TrackerExchange exchange) {
+			((HTTPScrape) exchange).start();
+		}
+
+		@Override
+		void closeHTTP(TrackerExchange exchange) {
+			((HTTPScrape) exchange).close();
+		}
+
+		/**
+		 * Hands received datagrams to the shard, which decodes them in place.
+		 * Runs on its loop.
+		 */
+		private class UDPResponseHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+			@Override
+			protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) {
+				received(msg.content().nioBuffer(), msg.sender());
+			}
+
+			@Override
+			public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+				logger.warn("Error on UDP tracker channel: {}", cause.getMessage());
+			}
+		}
+
+		/**
+		 * Returns an idle channel to the origin, most recently used first, or
+		 * <code>null</code> when none is open.
+		 */
+		private Channel leaseIdle(String origin) {
+			ArrayDeque<Channel> idle = idleChannels.get(origin);
+			Channel channel;
+			while (idle != null && (channel = idle.pollLast()) != null) {
+				HTTPChannelHandler handler = channel.pipeline().get(HTTPChannelHandler.class);
+				handler.idleTimeout.cancel();
+				if (channel.isActive()) {
+					return channel;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Keeps the channel of a finished scrape open for the next scrape of
+		 * its origin, unless the origin has enough idle channels already.
+		 */
+		private void park(Channel channel, HTTPChannelHandler handler) {
+			ArrayDeque<Channel> idle = idleChannels.get(handler.origin);
+			if (idle == null) {
+				idle = new ArrayDeque<>();
+				idleChannels.put(handler.origin, idle);
+			}
+			if (idle.size() >= HTTPConnectionPool.DEFAULT_MAX_IDLE_PER_HOST) {
+				channel.close();
+				return;
+			}
+			idle.addLast(channel);
+			handler.idleTimeout = getTimer().schedule(() -> channel.close(),
+					System.currentTimeMillis() + HTTPConnectionPool.DEFAULT_IDLE_TIMEOUT);
+		}
+
+		private void closeIdleChannels() {
+			for (ArrayDeque<Channel> idle : idleChannels.values()) {
+				for (Channel channel : idle) {
+					channel.close();
+				}
+			}
+			idleChannels.clear();
+		}
+
+		/**
+		 * Last handler of an HTTP channel, handing its responses to the scrape
+		 * the channel currently carries.
+		 */
+		private class HTTPChannelHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+			private final String origin;
+			private HTTPScrape scrape;
+			private HashedWheelTimer.Timeout idleTimeout;
+
+			HTTPChannelHandler(String origin, HTTPScrape scrape) {
+				this.origin = origin;
+				this.scrape = scrape;
+			}
+
+			@Override
+			public void channelActive(ChannelHandlerContext ctx) {
+				if (scrape != null) {
+					scrape.send();
+				}
+			}
+
+			@Override
+			protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+				if (scrape != null) {
+					scrape.received(msg);
+				}
+			}
+
+			@Override
+			public void channelInactive(ChannelHandlerContext ctx) {
+				ArrayDeque<Channel> idle = idleChannels.get(origin);
+				if (idle != null) {
+					idle.remove(ctx.channel());
+				}
+				if (scrape != null) {
+					scrape.finish(null, new ScrapeException("Tracker closed the connection"));
+				}
+			}
+
+			@Override
+			public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+				if (scrape != null) {
+					scrape.finish(null, cause);
+				} else {
+					ctx.close();
+				}
+			}
+		}
+
+		/**
+		 * One multi-hash HTTP scrape, sent on an idle channel to the origin of
+		 * its tracker or on a new one registered with the loop of the shard.
+		 */
+		private class HTTPScrape implements TrackerExchange {
+			private final HTTPTrackerSession session;
+			private final List<ScrapeJob> carried;
+			private final URL url;
+			private Channel channel;
+			private HTTPChannelHandler handler;
+			private HashedWheelTimer.Timeout timeout;
+			private boolean admitted;
+			private long startedAt;
+
+			HTTPScrape(HTTPTrackerSession session, List<ScrapeJob> carried, URL url) {
+				this.session = session;
+				this.carried = carried;
+				this.url = url;
+			}
+
+			@Override
+			public HTTPTrackerSession getSession() {
+				return session;
+			}
+
+			@Override
+			public List<ScrapeJob> getJobs() {
+				return carried;
+			}
+
+			@Override
+			public boolean isAdmitted() {
+				return admitted;
+			}
+
+			@Override
+			public void setAdmitted(boolean admitted) {
+				this.admitted = admitted;
+			}
+
+			@Override
+			public long getStartedAt() {
+				return startedAt;
+			}
+
+			@Override
+			public void setStartedAt(long startedAt) {
+				this.startedAt = startedAt;
+			}
+
+			void start() {
+				timeout = getTimer().schedule(() -> finish(null, new ScrapeException(
+						"Timeout while scraping to tracker: " + session.getTracker())),
+						System.currentTimeMillis() + getTimeout());
+				channel = leaseIdle(session.getOrigin());
+				if (channel != null) {
+					handler = channel.pipeline().get(HTTPChannelHandler.class);
+					handler.scrape = this;
+					send();
+					return;
+				}
+				handler = new HTTPChannelHandler(session.getOrigin(), this);
+				ChannelFuture connect = httpBootstrap.clone()
+					.handler(new ChannelInitializer<Channel>() {
+						@Override
+						protected void initChannel(Channel ch) throws SSLException {
+							if (session.isSecure()) {
+								ch.pipeline().addLast(new SslHandler(tls.createEngine(
+										session.getHost(), session.getPort())));
+							}
+							ch.pipeline().addLast(new HttpClientCodec(),
+								new HttpContentDecompressor(),
+								new HttpObjectAggregator(MAX_HTTP_RESPONSE_LENGTH),
+								handler);
+						}
+					})
+					.connect(session.getAddress());
+				channel = connect.channel();
+				connect.addListener((ChannelFutureListener) future -> {
+					if (!future.isSuccess()) {
+						finish(null, future.cause());
+					}
+				});
+			}
+
+			void send() {
+				String path = url.getPath() + (url.getQuery() == null ? "" : "?" + url.getQuery());
+				DefaultFullHttpRequest request = new DefaultFullHttpRequest(
+						HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+				request.headers()
+					.set(HttpHeaders.Names.HOST, url.getHost()
+							+ (url.getPort() == -1 ? "" : ":" + url.getPort()))
+					.set(HttpHeaders.Names.ACCEPT_ENCODING,
+							HttpHeaders.Values.GZIP + ", " + HttpHeaders.Values.DEFLATE);
+				channel.writeAndFlush(request).addListener((ChannelFutureListener) future -> {
+					if (!future.isSuccess()) {
+						finish(null, future.cause());
+					}
+				});
+			}
+
+			void received(FullHttpResponse msg) {
+				if (msg.getStatus().code() / 100 != 2) {
+					finish(null, new ScrapeException("Unexpected HTTP status from tracker: "
+							+ msg.getStatus()));
+					return;
+				}
+				Map<ByteBuffer, TorrentState> states;
+				try {
+					states = HTTPTrackerScraper.parseScrapeResponses(
+							new ByteBufInputStream(msg.content()));
+				} catch (IOException | RuntimeException e) {
+					finish(null, e);
+					return;
+				}
+				if (HttpHeaders.isKeepAlive(msg)) {
+					// Detached first, so that finishing leaves the channel open.
+					handler.scrape = null;
+					park(channel, handler);
+					channel = null;
+				}
+				finish(states, null);
+			}
+
+			/**
+			 * Closes the channel of a scrape that is over or given up, unless it
+			 * went back to the idle channels.
+			 */
+			void close() {
+				if (channel != null) {
+					channel.close();
+				}
+				if (timeout != null) {
+					timeout.cancel();
+				}
+			}
+
+			private void finish(Map<ByteBuffer, TorrentState> states, Throwable cause) {
+				Shard.this.finish(this, states, cause);
+			}
+		}
+	}
+}
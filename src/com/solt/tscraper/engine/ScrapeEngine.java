@@ -0,0 +1,243 @@
+package com.solt.tscraper.engine;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import javax.net.ssl.SSLContext;
+
+import com.solt.tscraper.common.Torrent;
+import com.solt.tscraper.torrent.ScrapeListener;
+import com.solt.tscraper.tracker.ScrapeException;
+
+/**
+ * A long-lived scraper shared by any number of torrents.
+ *
+ * <p>
+ * Instead of opening sockets per torrent, the engine keeps a fixed number of
+ * event loop threads, each with one selector and one UDP socket. Every
+ * tracker is owned by one loop, submitted torrents are grouped with the
+ * others by tracker and all UDP and HTTP exchanges of a tracker are driven
+ * from its loop, so many thousands of torrents can be in flight at the same
+ * time. {@link ScrapeEngineConfig#setEventLoops(int)} spreads the trackers
+ * over several cores.
+ * </p>
+ *
+ * <p>
+ * {@link #withNetty(ScrapeEngineConfig)} runs the same exchanges on a Netty
+ * event loop group instead.
+ * </p>
+ */
+public class ScrapeEngine {
+
+	/** Default time to wait for a tracker to answer, in ms. */
+	public static final long DEFAULT_TIMEOUT = 5000;
+
+	/** Default number of times a UDP request is sent to a silent tracker. */
+	public static final int DEFAULT_UDP_ATTEMPTS = 3;
+
+	private static ScrapeEngine instance;
+
+	private final ScrapeTransport transport;
+	private volatile boolean shutdown;
+
+	public ScrapeEngine() throws IOException {
+		this(DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param timeout How long to wait for a tracker exchange, in ms.
+	 */
+	public ScrapeEngine(long timeout) throws IOException {
+		this(timeout, DEFAULT_UDP_ATTEMPTS);
+	}
+
+	/**
+	 * @param timeout How long to wait for a tracker exchange, in ms. Unanswered
+	 * UDP requests are retransmitted after <code>timeout * 2 ^ n</code> ms.
+	 * @param udpAttempts How many times a UDP request is sent before the
+	 * tracker is given up.
+	 */
+	public ScrapeEngine(long timeout, int udpAttempts) throws IOException {
+		this(config(timeout, udpAttempts, null));
+	}
+
+	/**
+	 * @param timeout How long to wait for a tracker exchange, in ms.
+	 * @param udpAttempts How many times a UDP request is sent before the
+	 * tracker is given up.
+	 * @param sslContext The context of HTTPS connections, for instance to
+	 * trust a private certificate authority. Its client session cache holds
+	 * the TLS sessions resumed per tracker host.
+	 */
+	public ScrapeEngine(long timeout, int udpAttempts, SSLContext sslContext)
+			throws IOException {
+		this(config(timeout, udpAttempts, sslContext));
+	}
+
+	/**
+	 * Creates an engine tuned by the given config.
+	 */
+	public ScrapeEngine(ScrapeEngineConfig config) throws IOException {
+		EventLoopGroup loops = new EventLoopGroup(config, tls(config));
+		loops.start();
+		this.transport = loops;
+	}
+
+	private static ScrapeEngineConfig config(long timeout, int udpAttempts,
+			SSLContext sslContext) {
+		ScrapeEngineConfig config = new ScrapeEngineConfig();
+		config.setTimeout(timeout);
+		config.setUdpAttempts(udpAttempts);
+		config.setSslContext(sslContext);
+		return config;
+	}
+
+	private static TLSContext tls(ScrapeEngineConfig config) {
+		return config.getSslContext() == null ? new TLSContext()
+				: new TLSContext(config.getSslContext());
+	}
+
+	private ScrapeEngine(ScrapeTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Creates an engine running on Netty instead of the built-in selector
+	 * loops, with the default config.
+	 *
+	 * @param timeout How long to wait for a tracker exchange, in ms.
+	 */
+	public static ScrapeEngine withNetty(long timeout) throws IOException {
+		return withNetty(config(timeout, DEFAULT_UDP_ATTEMPTS, null));
+	}
+
+	/**
+	 * Creates an engine running on Netty instead of the built-in selector
+	 * loops. The trackers are sharded over
+	 * {@link ScrapeEngineConfig#getEventLoops()} Netty loops, each with a
+	 * datagram channel of its own, and the buffer sizes, read budget, tracker
+	 * limits and health registry of the config apply as they do to the
+	 * built-in loops.
+	 * {@link ScrapeEngineConfig#isReusePort()} is ignored: the loops never
+	 * share a port. The native epoll transport is used when the
+	 * <code>tscraper.netty.epoll</code> system property is set.
+	 */
+	public static ScrapeEngine withNetty(ScrapeEngineConfig config)
+			throws IOException {
+		return new ScrapeEngine(new NettyTransport(config, tls(config)));
+	}
+
+	/**
+	 * Returns the process-wide engine, starting it on first use.
+	 */
+	public static synchronized ScrapeEngine getInstance() {
+		if (instance == null || instance.shutdown) {
+			try {
+				instance = new ScrapeEngine();
+			} catch (IOException e) {
+				throw new ScrapeException("Could not start scrape engine", e);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Scrapes all trackers of the given torrent.
+	 */
+	public ScrapeJob submit(Torrent torrent, ScrapeListener listener) {
+		ScrapeJob job = newJob(torrent, listener);
+		submit(Collections.singletonList(job));
+		return job;
+	}
+
+	/**
+	 * Scrapes a batch of torrents at once, sharing tracker exchanges between
+	 * them: the batch reaches every event loop as one submission.
+	 */
+	public List<ScrapeJob> submit(Collection<Torrent> torrents,
+			ScrapeListener listener) {
+		List<ScrapeJob> jobs = new ArrayList<>(torrents.size());
+		for (Torrent torrent : torrents) {
+			jobs.add(newJob(torrent, listener));
+		}
+		submit(jobs);
+		return jobs;
+	}
+
+	/**
+	 * Scrapes a bare info hash on the given trackers. Listener callbacks
+	 * receive a <code>null</code> torrent.
+	 */
+	public ScrapeJob submit(byte[] infoHash, Collection<URI> trackers,
+			ScrapeListener listener) {
+		ScrapeJob job = newJob(infoHash, trackers, listener);
+		submit(Collections.singletonList(job));
+		return job;
+	}
+
+	/**
+	 * Scrapes a batch of bare info hashes on the same trackers at once,
+	 * sharing tracker exchanges between them. Listener callbacks receive a
+	 * <code>null</code> torrent.
+	 */
+	public List<ScrapeJob> submit(List<byte[]> infoHashes, Collection<URI> trackers,
+			ScrapeListener listener) {
+		List<ScrapeJob> jobs = new ArrayList<>(infoHashes.size());
+		for (byte[] infoHash : infoHashes) {
+			jobs.add(newJob(infoHash, trackers, listener));
+		}
+		submit(jobs);
+		return jobs;
+	}
+
+	private static ScrapeJob newJob(byte[] infoHash, Collection<URI> trackers,
+			ScrapeListener listener) {
+		if (infoHash.length != Torrent.PIECE_HASH_SIZE) {
+			throw new IllegalArgumentException("Info hash must be "
+					+ Torrent.PIECE_HASH_SIZE + " bytes long");
+		}
+		return new ScrapeJob(null, infoHash, new ArrayList<>(trackers), listener);
+	}
+
+	private static ScrapeJob newJob(Torrent torrent, ScrapeListener listener) {
+		List<URI> trackers = new ArrayList<>();
+		for (List<URI> tier : torrent.getAnnounceList()) {
+			trackers.addAll(tier);
+		}
+		return new ScrapeJob(torrent, torrent.getInfoHash(), trackers, listener);
+	}
+
+	private void submit(List<ScrapeJob> jobs) {
+		if (shutdown) {
+			throw new IllegalStateException("Scrape engine is shut down");
+		}
+		List<ScrapeJob> pending = new ArrayList<>(jobs.size());
+		for (ScrapeJob job : jobs) {
+			if (job.isDone()) {
+				continue;
+			}
+			job.getFuture().whenComplete((state, cause) -> {
+				if (cause instanceof CancellationException) {
+					transport.cancel(job);
+				}
+			});
+			pending.add(job);
+		}
+		if (!pending.isEmpty()) {
+			transport.submit(pending);
+		}
+	}
+
+	/**
+	 * Stops the event loop. Jobs still in flight are failed.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		transport.shutdown();
+	}
+}
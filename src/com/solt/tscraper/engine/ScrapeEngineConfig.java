@@ -0,0 +1,210 @@
+package com.solt.tscraper.engine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Tuning knobs of a {@link ScrapeEngine}. The engine copies them when it is
+ * created; later changes have no effect on it.
+ */
+public class ScrapeEngineConfig {
+
+	/** Default number of datagrams received per readiness event. */
+	public static final int DEFAULT_UDP_READ_BUDGET = 64;
+
+	private long timeout = ScrapeEngine.DEFAULT_TIMEOUT;
+	private int udpAttempts = ScrapeEngine.DEFAULT_UDP_ATTEMPTS;
+	private int udpReadBudget = DEFAULT_UDP_READ_BUDGET;
+	private int eventLoops = 1;
+	private boolean reusePort;
+	private int udpReceiveBufferSize;
+	private int udpSendBufferSize;
+	private TrackerLimit trackerLimit = TrackerLimit.UNLIMITED;
+	private final Map<String, TrackerLimit> hostLimits = new HashMap<>();
+	private TrackerHealthRegistry healthRegistry = TrackerHealthRegistry.getInstance();
+	private SSLContext sslContext;
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout How long to wait for a tracker exchange, in ms.
+	 * Unanswered UDP requests are retransmitted after
+	 * <code>timeout * 2 ^ n</code> ms.
+	 */
+	public void setTimeout(long timeout) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive");
+		}
+		this.timeout = timeout;
+	}
+
+	public int getUdpAttempts() {
+		return udpAttempts;
+	}
+
+	/**
+	 * @param udpAttempts How many times a UDP request is sent before the
+	 * tracker is given up.
+	 */
+	public void setUdpAttempts(int udpAttempts) {
+		if (udpAttempts < 1) {
+			throw new IllegalArgumentException("At least one UDP attempt is needed");
+		}
+		this.udpAttempts = udpAttempts;
+	}
+
+	public int getUdpReadBudget() {
+		return udpReadBudget;
+	}
+
+	/**
+	 * @param udpReadBudget How many datagrams are received in a row when the
+	 * UDP socket gets readable, before other sockets get their turn. Larger
+	 * budgets save selector wake-ups under bursts of replies.
+	 */
+	public void setUdpReadBudget(int udpReadBudget) {
+		if (udpReadBudget < 1) {
+			throw new IllegalArgumentException("UDP read budget must be positive");
+		}
+		this.udpReadBudget = udpReadBudget;
+	}
+
+	public int getEventLoops() {
+		return eventLoops;
+	}
+
+	/**
+	 * @param eventLoops Number of event loop threads, each with its own
+	 * selector and UDP socket. Every tracker is served by one loop only.
+	 */
+	public void setEventLoops(int eventLoops) {
+		if (eventLoops < 1) {
+			throw new IllegalArgumentException("At least one event loop is needed");
+		}
+		this.eventLoops = eventLoops;
+	}
+
+	public boolean isReusePort() {
+		return reusePort;
+	}
+
+	/**
+	 * @param reusePort Whether the UDP sockets of all loops share one port
+	 * through <code>SO_REUSEPORT</code>, for hosts that must expose a single
+	 * port. The kernel picks the socket of a reply by address, not by the
+	 * loop owning its tracker, so with N loops about (N-1)/N of the replies
+	 * are handed over to another loop; leave it off otherwise, each loop then
+	 * binds a port of its own. Ignored where the option is not supported.
+	 */
+	public void setReusePort(boolean reusePort) {
+		this.reusePort = reusePort;
+	}
+
+	public int getUdpReceiveBufferSize() {
+		return udpReceiveBufferSize;
+	}
+
+	/**
+	 * @param udpReceiveBufferSize <code>SO_RCVBUF</code> of the UDP sockets,
+	 * in bytes. 0 keeps the system default.
+	 */
+	public void setUdpReceiveBufferSize(int udpReceiveBufferSize) {
+		if (udpReceiveBufferSize < 0) {
+			throw new IllegalArgumentException("Negative buffer size");
+		}
+		this.udpReceiveBufferSize = udpReceiveBufferSize;
+	}
+
+	public int getUdpSendBufferSize() {
+		return udpSendBufferSize;
+	}
+
+	/**
+	 * @param udpSendBufferSize <code>SO_SNDBUF</code> of the UDP sockets, in
+	 * bytes. 0 keeps the system default.
+	 */
+	public void setUdpSendBufferSize(int udpSendBufferSize) {
+		if (udpSendBufferSize < 0) {
+			throw new IllegalArgumentException("Negative buffer size");
+		}
+		this.udpSendBufferSize = udpSendBufferSize;
+	}
+
+	public TrackerLimit getTrackerLimit() {
+		return trackerLimit;
+	}
+
+	/**
+	 * @param trackerLimit The limit of every tracker without one of its own.
+	 */
+	public void setTrackerLimit(TrackerLimit trackerLimit) {
+		if (trackerLimit == null) {
+			throw new NullPointerException("trackerLimit");
+		}
+		this.trackerLimit = trackerLimit;
+	}
+
+	/**
+	 * Returns the limit of the trackers on the given host.
+	 */
+	public TrackerLimit getTrackerLimit(String host) {
+		TrackerLimit limit = hostLimits.get(host.toLowerCase(Locale.ROOT));
+		return limit != null ? limit : trackerLimit;
+	}
+
+	/**
+	 * Sets the limit of the trackers on the given host, whatever their port
+	 * and scheme. Each port and scheme is limited on its own.
+	 *
+	 * @param trackerLimit The limit, <code>null</code> to fall back to the
+	 * default one.
+	 */
+	public void setTrackerLimit(String host, TrackerLimit trackerLimit) {
+		if (trackerLimit == null) {
+			hostLimits.remove(host.toLowerCase(Locale.ROOT));
+		} else {
+			hostLimits.put(host.toLowerCase(Locale.ROOT), trackerLimit);
+		}
+	}
+
+	/**
+	 * Returns the limits set per host, by lower case host name.
+	 */
+	public Map<String, TrackerLimit> getHostTrackerLimits() {
+		return Collections.unmodifiableMap(hostLimits);
+	}
+
+	public TrackerHealthRegistry getHealthRegistry() {
+		return healthRegistry;
+	}
+
+	/**
+	 * @param healthRegistry Where the outcome of every exchange is recorded,
+	 * and whose circuit breakers skip trackers that keep failing. Defaults to
+	 * the registry shared by the process; <code>null</code> scrapes every
+	 * tracker every time.
+	 */
+	public void setHealthRegistry(TrackerHealthRegistry healthRegistry) {
+		this.healthRegistry = healthRegistry;
+	}
+
+	public SSLContext getSslContext() {
+		return sslContext;
+	}
+
+	/**
+	 * @param sslContext The context of HTTPS connections, for instance to
+	 * trust a private certificate authority. Its client session cache holds
+	 * the TLS sessions resumed per tracker host. <code>null</code> uses a
+	 * private context with the default trust store.
+	 */
+	public void setSslContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
+	}
+}
@@ -0,0 +1,209 @@
+package com.solt.tscraper.engine;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.solt.tscraper.common.Torrent;
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.torrent.ScrapeListener;
+import com.solt.tscraper.tracker.ScrapeException;
+
+/**
+ * A single torrent submitted to the {@link ScrapeEngine}.
+ *
+ * <p>
+ * The job is complete once every one of its trackers has either answered or
+ * failed. All tracker events are delivered to the job's
+ * {@link ScrapeListener} from the event loop threads owning the trackers,
+ * one event at a time, and the job's future then completes with the
+ * aggregated state: the highest seeder, leecher and download counts reported
+ * by any tracker.
+ * </p>
+ *
+ * <p>
+ * Cancelling the future releases the job's in-flight tracker exchanges.
+ * </p>
+ */
+public class ScrapeJob {
+
+	private static final Logger logger =
+		LoggerFactory.getLogger(ScrapeJob.class);
+
+	private final Torrent torrent;
+	private final byte[] infoHash;
+	private final List<URI> trackers;
+	private final ScrapeListener listener;
+	private final CompletableFuture<TorrentState> future;
+
+	// Guarded by this job, its trackers may live on different event loops.
+	private int remaining;
+	private TorrentState aggregate;
+	private Throwable lastError;
+	// Every loop only touches its own exchanges in these.
+	private final List<UDPTransaction> transactions;
+	private final List<TrackerExchange> exchanges;
+
+	ScrapeJob(Torrent torrent, byte[] infoHash, List<URI> trackers,
+			ScrapeListener listener) {
+		this.torrent = torrent;
+		this.infoHash = infoHash;
+		this.trackers = Collections.unmodifiableList(trackers);
+		this.listener = listener;
+		this.future = new CompletableFuture<>();
+		this.remaining = trackers.size();
+		this.transactions = new CopyOnWriteArrayList<>();
+		this.exchanges = new CopyOnWriteArrayList<>();
+		if (this.remaining == 0) {
+			this.future.completeExceptionally(new ScrapeException(
+					"No tracker to scrape"));
+		}
+	}
+
+	/**
+	 * Returns the scraped torrent, or <code>null</code> when the job was
+	 * submitted by info hash.
+	 */
+	public Torrent getTorrent() {
+		return torrent;
+	}
+
+	public byte[] getInfoHash() {
+		return infoHash;
+	}
+
+	public List<URI> getTrackers() {
+		return trackers;
+	}
+
+	/**
+	 * Returns the future of the aggregated state. It fails with a
+	 * {@link ScrapeException} when no tracker answered.
+	 */
+	public CompletableFuture<TorrentState> getFuture() {
+		return future;
+	}
+
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	/**
+	 * Cancels the job and releases its in-flight tracker exchanges.
+	 *
+	 * @return <code>false</code> if the job was already done.
+	 */
+	public boolean cancel() {
+		return future.cancel(false);
+	}
+
+	/**
+	 * Waits until every tracker of this job has answered or failed.
+	 */
+	public void await() throws InterruptedException {
+		try {
+			future.get();
+		} catch (ExecutionException | CancellationException e) {
+			// Done either way.
+		}
+	}
+
+	/**
+	 * Waits at most the given time for this job to complete.
+	 *
+	 * @return <code>true</code> if the job completed in time.
+	 */
+	public boolean await(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		try {
+			future.get(timeout, unit);
+		} catch (ExecutionException | CancellationException e) {
+			// Done either way.
+		} catch (TimeoutException e) {
+			return false;
+		}
+		return true;
+	}
+
+	List<UDPTransaction> getTransactions() {
+		return transactions;
+	}
+
+	/**
+	 * Returns the HTTP exchanges carrying the job, whichever transport runs
+	 * them.
+	 */
+	List<TrackerExchange> getExchanges() {
+		return exchanges;
+	}
+
+	synchronized void trackerSucceeded(URI tracker, TorrentState state) {
+		if (isDone()) {
+			return;
+		}
+		try {
+			listener.onTrackerSuccess(torrent, tracker, state);
+		} catch (RuntimeException e) {
+			logger.warn("Scrape listener failed on success of {}", tracker, e);
+		}
+		if (aggregate == null) {
+			aggregate = new TorrentState(state.getComplete(),
+					state.getDownloaded(), state.getIncomplete());
+		} else {
+			aggregate.setComplete(Math.max(aggregate.getComplete(), state.getComplete()));
+			aggregate.setDownloaded(Math.max(aggregate.getDownloaded(), state.getDownloaded()));
+			aggregate.setIncomplete(Math.max(aggregate.getIncomplete(), state.getIncomplete()));
+		}
+		trackerDone();
+	}
+
+	synchronized void trackerFailed(URI tracker, Throwable cause) {
+		if (isDone()) {
+			return;
+		}
+		try {
+			listener.onTrackerError(torrent, tracker, cause);
+		} catch (RuntimeException e) {
+			logger.warn("Scrape listener failed on error of {}", tracker, e);
+		}
+		lastError = cause;
+		trackerDone();
+	}
+
+	/**
+	 * Aborts the whole job, e.g. when the engine shuts down.
+	 */
+	synchronized void failed(Throwable cause) {
+		if (isDone()) {
+			return;
+		}
+		try {
+			listener.onError(torrent, cause);
+		} catch (RuntimeException e) {
+			logger.warn("Scrape listener failed on job error", e);
+		}
+		remaining = 0;
+		future.completeExceptionally(cause);
+	}
+
+	private void trackerDone() {
+		if (--remaining > 0) {
+			return;
+		}
+		if (aggregate != null) {
+			future.complete(aggregate);
+		} else {
+			future.completeExceptionally(new ScrapeException(
+					"No tracker answered the scrape", lastError));
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.solt.tscraper.engine;
+
+import java.util.List;
+
+/**
+ * The I/O backend a {@link ScrapeEngine} hands its jobs to.
+ *
+ * <p>
+ * Implementations own their threads and must be safe to call from any
+ * thread.
+ * </p>
+ */
+interface ScrapeTransport {
+
+	/**
+	 * Hands a batch of jobs to the loops owning their trackers. Every loop
+	 * takes its share of the batch in one pass, so that jobs submitted
+	 * together share their tracker exchanges.
+	 */
+	void submit(List<ScrapeJob> jobs);
+
+	/**
+	 * Releases the in-flight exchanges of a cancelled job.
+	 */
+	void cancel(ScrapeJob job);
+
+	/**
+	 * Stops the transport, failing the jobs still in flight.
+	 */
+	void shutdown();
+}
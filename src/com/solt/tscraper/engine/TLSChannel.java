@@ -0,0 +1,257 @@
+package com.solt.tscraper.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import com.solt.tscraper.util.BufferPool;
+
+/**
+ * TLS on top of a non-blocking {@link SocketChannel}, driven by an
+ * {@link SSLEngine}.
+ *
+ * <p>
+ * {@link #read(ByteBuffer)} and {@link #write(ByteBuffer)} behave like their
+ * counterparts of the socket, moving application bytes, and advance the
+ * handshake as a side effect. Neither blocks: when the engine waits for the
+ * network they return 0, and {@link #wantsWrite()} tells which readiness to
+ * wait for next. Delegated tasks of the engine, such as certificate checks,
+ * run on the calling thread.
+ * </p>
+ *
+ * <p>
+ * The record buffers are borrowed from the loop's {@link BufferPool} and
+ * handed back by {@link #release()}.
+ * </p>
+ */
+class TLSChannel {
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final SocketChannel channel;
+	private final SSLEngine engine;
+	private final BufferPool buffers;
+	// Received ciphertext, in fill mode.
+	private ByteBuffer netIn;
+	// Ciphertext to send, in drain mode.
+	private ByteBuffer netOut;
+	// Decrypted bytes not yet read, in drain mode.
+	private ByteBuffer appIn;
+	private boolean endOfStream;
+
+	TLSChannel(SocketChannel channel, SSLEngine engine, BufferPool buffers)
+			throws SSLException {
+		this.channel = channel;
+		this.engine = engine;
+		this.buffers = buffers;
+		int packetSize = engine.getSession().getPacketBufferSize();
+		this.netIn = buffers.acquire(packetSize);
+		this.netOut = buffers.acquire(packetSize);
+		this.netOut.flip();
+		this.appIn = buffers.acquire(engine.getSession().getApplicationBufferSize());
+		this.appIn.flip();
+		engine.beginHandshake();
+	}
+
+	/**
+	 * Hands the record buffers back to the pool. The channel is unusable
+	 * afterwards.
+	 */
+	void release() {
+		buffers.release(netIn);
+		buffers.release(netOut);
+		buffers.release(appIn);
+		netIn = null;
+		netOut = null;
+		appIn = null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the channel has to write before it can
+	 * make progress: ciphertext is pending, or the handshake wants to send.
+	 */
+	boolean wantsWrite() {
+		return netOut.hasRemaining()
+				|| engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP;
+	}
+
+	/**
+	 * Returns <code>true</code> while the handshake waits for the server.
+	 */
+	boolean wantsRead() {
+		return !netOut.hasRemaining()
+				&& engine.getHandshakeStatus() == HandshakeStatus.NEED_UNWRAP;
+	}
+
+	/**
+	 * Encrypts and sends application bytes, once the handshake is done.
+	 *
+	 * @return The number of bytes taken from the buffer.
+	 */
+	int write(ByteBuffer src) throws IOException {
+		if (!flush() || !handshake()) {
+			return 0;
+		}
+		int written = 0;
+		while (src.hasRemaining()) {
+			written += wrap(src).bytesConsumed();
+			if (!flush()) {
+				break;
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Reads decrypted application bytes, driving the handshake first.
+	 *
+	 * @return The number of bytes read, or -1 once the server closed the
+	 * connection.
+	 */
+	int read(ByteBuffer dst) throws IOException {
+		while (!appIn.hasRemaining()) {
+			if (endOfStream) {
+				return -1;
+			}
+			if (!flush()) {
+				return 0;
+			}
+			HandshakeStatus status = engine.getHandshakeStatus();
+			if (status == HandshakeStatus.NEED_WRAP || status == HandshakeStatus.NEED_TASK) {
+				if (!handshake()) {
+					return 0;
+				}
+			} else if (!unwrap()) {
+				return endOfStream ? -1 : 0;
+			}
+		}
+		int count = Math.min(dst.remaining(), appIn.remaining());
+		int limit = appIn.limit();
+		appIn.limit(appIn.position() + count);
+		dst.put(appIn);
+		appIn.limit(limit);
+		return count;
+	}
+
+	/**
+	 * Advances the handshake as far as the network allows.
+	 *
+	 * @return <code>true</code> once it is complete.
+	 */
+	private boolean handshake() throws IOException {
+		while (true) {
+			switch (engine.getHandshakeStatus()) {
+			case NEED_TASK:
+				Runnable task;
+				while ((task = engine.getDelegatedTask()) != null) {
+					task.run();
+				}
+				break;
+			case NEED_WRAP:
+				wrap(EMPTY);
+				if (!flush()) {
+					return false;
+				}
+				break;
+			case NOT_HANDSHAKING:
+			case FINISHED:
+				return true;
+			default:
+				// Waiting for the server.
+				if (!unwrap()) {
+					if (endOfStream) {
+						throw new SSLException("Connection closed during TLS handshake");
+					}
+					return false;
+				}
+			}
+		}
+	}
+
+	private SSLEngineResult wrap(ByteBuffer src) throws SSLException {
+		netOut.compact();
+		SSLEngineResult result;
+		try {
+			result = engine.wrap(src, netOut);
+		} finally {
+			netOut.flip();
+		}
+		if (result.getStatus() != SSLEngineResult.Status.OK) {
+			throw new SSLException("Could not encrypt TLS record: " + result.getStatus());
+		}
+		return result;
+	}
+
+	/**
+	 * Decrypts one TLS record, reading the socket when no whole record is
+	 * buffered.
+	 *
+	 * @return <code>false</code> if no record is available yet.
+	 */
+	private boolean unwrap() throws IOException {
+		while (true) {
+			netIn.flip();
+			appIn.compact();
+			SSLEngineResult result;
+			try {
+				result = engine.unwrap(netIn, appIn);
+			} finally {
+				netIn.compact();
+				appIn.flip();
+			}
+			switch (result.getStatus()) {
+			case CLOSED:
+				// The server sent close_notify.
+				endOfStream = true;
+				return false;
+			case BUFFER_OVERFLOW:
+				if (appIn.hasRemaining()) {
+					// Room is made as the application reads.
+					return true;
+				}
+				buffers.release(appIn);
+				appIn = buffers.acquire(engine.getSession().getApplicationBufferSize());
+				appIn.flip();
+				continue;
+			case OK:
+				if (result.bytesConsumed() > 0 || result.bytesProduced() > 0) {
+					return true;
+				}
+				break;
+			default:
+				// A record is only partly buffered.
+				int packetSize = engine.getSession().getPacketBufferSize();
+				if (netIn.capacity() < packetSize) {
+					ByteBuffer larger = buffers.acquire(packetSize);
+					netIn.flip();
+					larger.put(netIn);
+					buffers.release(netIn);
+					netIn = larger;
+				}
+			}
+			int numRead = channel.read(netIn);
+			if (numRead == -1) {
+				endOfStream = true;
+				return false;
+			} else if (numRead == 0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Sends pending ciphertext.
+	 *
+	 * @return <code>true</code> once none is left.
+	 */
+	private boolean flush() throws IOException {
+		if (netOut.hasRemaining()) {
+			channel.write(netOut);
+		}
+		return !netOut.hasRemaining();
+	}
+}
@@ -0,0 +1,75 @@
+package com.solt.tscraper.engine;
+
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Creates the client {@link SSLEngine}s of HTTPS tracker connections.
+ *
+ * <p>
+ * Every engine is bound to the host and port of its tracker, so the client
+ * session cache of the context keeps one TLS session per host: later
+ * connections to the host resume it and skip the full handshake. Server
+ * certificates are checked against the tracker host name.
+ * </p>
+ *
+ * <p>
+ * Without an explicit {@link SSLContext}, a private one is created on first
+ * use with the default trust store, so that the session cache is not shared
+ * with the rest of the process.
+ * </p>
+ */
+class TLSContext {
+
+	/** Default number of TLS sessions kept, one per tracker host and port. */
+	static final int DEFAULT_SESSION_CACHE_SIZE = 1024;
+
+	/** Default lifetime of a cached TLS session, in seconds. */
+	static final int DEFAULT_SESSION_TIMEOUT = 3600;
+
+	private SSLContext context;
+
+	TLSContext() {
+	}
+
+	/**
+	 * @param context The context creating the engines, whose client session
+	 * cache is used as is.
+	 */
+	TLSContext(SSLContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Creates a client engine for the tracker host.
+	 */
+	SSLEngine createEngine(String host, int port) throws SSLException {
+		SSLEngine engine = context().createSSLEngine(host, port);
+		engine.setUseClientMode(true);
+		SSLParameters parameters = engine.getSSLParameters();
+		parameters.setEndpointIdentificationAlgorithm("HTTPS");
+		engine.setSSLParameters(parameters);
+		return engine;
+	}
+
+	private synchronized SSLContext context() throws SSLException {
+		if (context == null) {
+			try {
+				SSLContext created = SSLContext.getInstance("TLS");
+				created.init(null, null, null);
+				SSLSessionContext sessions = created.getClientSessionContext();
+				sessions.setSessionCacheSize(DEFAULT_SESSION_CACHE_SIZE);
+				sessions.setSessionTimeout(DEFAULT_SESSION_TIMEOUT);
+				context = created;
+			} catch (GeneralSecurityException e) {
+				throw new SSLException("Could not initialize TLS", e);
+			}
+		}
+		return context;
+	}
+}
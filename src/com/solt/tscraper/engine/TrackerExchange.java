@@ -0,0 +1,29 @@
+package com.solt.tscraper.engine;
+
+import java.util.List;
+
+/**
+ * A request to a tracker carrying a batch of jobs, as seen by its
+ * {@link TrackerLimiter} and the {@link TrackerHealth} of its tracker.
+ */
+interface TrackerExchange {
+
+	TrackerSession getSession();
+
+	List<ScrapeJob> getJobs();
+
+	/**
+	 * Returns <code>true</code> while the exchange holds an in-flight slot of
+	 * its tracker's limiter.
+	 */
+	boolean isAdmitted();
+
+	void setAdmitted(boolean admitted);
+
+	/**
+	 * Returns when the exchange was started, in ms.
+	 */
+	long getStartedAt();
+
+	void setStartedAt(long startedAt);
+}
@@ -0,0 +1,144 @@
+package com.solt.tscraper.engine;
+
+/**
+ * The health of one tracker endpoint, and the circuit breaker guarding it.
+ *
+ * <p>
+ * The engine reports the outcome of every exchange with the tracker. Success
+ * rate and latency are exponentially weighted moving averages, so recent
+ * exchanges weigh most. After
+ * {@link TrackerHealthRegistry#getFailureThreshold()} failures in a row the
+ * circuit opens: scrapes of the tracker fail at once, without any packet
+ * sent. Once the probe interval is over, the circuit is half open and a
+ * single scrape goes through as a probe. Its success closes the circuit, its
+ * failure opens it again for twice as long, up to
+ * {@link TrackerHealthRegistry#getMaxProbeInterval()}.
+ * </p>
+ *
+ * <p>
+ * Instances are shared by all event loops and are thread-safe.
+ * </p>
+ */
+public class TrackerHealth {
+
+	/** Weight of the latest exchange in the moving averages. */
+	static final double ALPHA = 0.2;
+
+	public enum State {
+		/** Scrapes go through. */
+		CLOSED,
+		/** Scrapes fail at once. */
+		OPEN,
+		/** A probe is in flight, other scrapes fail at once. */
+		HALF_OPEN
+	}
+
+	private final String endpoint;
+	private final TrackerHealthRegistry registry;
+	private State state;
+	private long successes;
+	private long failures;
+	private int consecutiveFailures;
+	private double successRate;
+	private double latency;
+	private long probeInterval;
+	private long nextProbeAt;
+
+	TrackerHealth(String endpoint, TrackerHealthRegistry registry) {
+		this.endpoint = endpoint;
+		this.registry = registry;
+		this.state = State.CLOSED;
+		this.successRate = 1;
+		this.latency = -1;
+	}
+
+	/**
+	 * Returns the scheme, host and port of the tracker.
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized long getSuccesses() {
+		return successes;
+	}
+
+	public synchronized long getFailures() {
+		return failures;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * Returns the moving average of successful exchanges, between 0 and 1.
+	 */
+	public synchronized double getSuccessRate() {
+		return successRate;
+	}
+
+	/**
+	 * Returns the moving average of the time successful exchanges took, in
+	 * ms, or -1 before the first one.
+	 */
+	public synchronized double getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Returns whether a scrape may be sent to the tracker now. When the probe
+	 * interval of an open circuit is over, the caller's scrape becomes the
+	 * probe; if it never reports back, another one is let through after the
+	 * same interval.
+	 */
+	synchronized boolean allowRequest(long now) {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		if (now < nextProbeAt) {
+			return false;
+		}
+		state = State.HALF_OPEN;
+		nextProbeAt = now + probeInterval;
+		return true;
+	}
+
+	synchronized void succeeded(long elapsed) {
+		++successes;
+		consecutiveFailures = 0;
+		successRate += ALPHA * (1 - successRate);
+		latency = latency < 0 ? elapsed : latency + ALPHA * (elapsed - latency);
+		state = State.CLOSED;
+		probeInterval = 0;
+	}
+
+	synchronized void failed(long now) {
+		++failures;
+		++consecutiveFailures;
+		successRate -= ALPHA * successRate;
+		if (state == State.HALF_OPEN) {
+			open(now, Math.min(probeInterval * 2, registry.getMaxProbeInterval()));
+		} else if (state == State.CLOSED
+				&& consecutiveFailures >= registry.getFailureThreshold()) {
+			open(now, registry.getProbeInterval());
+		}
+	}
+
+	private void open(long now, long interval) {
+		state = State.OPEN;
+		probeInterval = interval;
+		nextProbeAt = now + interval;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "TrackerHealth [endpoint=" + endpoint + ", state=" + state
+				+ ", successRate=" + successRate + ", latency=" + latency
+				+ ", consecutiveFailures=" + consecutiveFailures + "]";
+	}
+}
@@ -0,0 +1,114 @@
+package com.solt.tscraper.engine;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link TrackerHealth} of every tracker endpoint scraped so far.
+ *
+ * <p>
+ * Trackers are told apart by scheme, host and port, so announce urls that
+ * only differ in their path or query share their health. One registry may
+ * be shared by several engines; by default all engines of the process use
+ * {@link #getInstance()}.
+ * </p>
+ */
+public class TrackerHealthRegistry {
+
+	/** Default number of failures in a row that open a circuit. */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	/** Default time an open circuit waits for its first probe, in ms. */
+	public static final long DEFAULT_PROBE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+	/** Default longest time between two probes, in ms. */
+	public static final long DEFAULT_MAX_PROBE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+	private static final TrackerHealthRegistry instance = new TrackerHealthRegistry();
+
+	private final ConcurrentMap<String, TrackerHealth> trackers;
+	private final int failureThreshold;
+	private final long probeInterval;
+	private final long maxProbeInterval;
+
+	public TrackerHealthRegistry() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_PROBE_INTERVAL,
+				DEFAULT_MAX_PROBE_INTERVAL);
+	}
+
+	/**
+	 * @param failureThreshold Number of failures in a row that open a
+	 * circuit.
+	 * @param probeInterval Time an open circuit waits for its first probe, in
+	 * ms.
+	 * @param maxProbeInterval Longest time between two probes, in ms.
+	 */
+	public TrackerHealthRegistry(int failureThreshold, long probeInterval,
+			long maxProbeInterval) {
+		if (failureThreshold < 1 || probeInterval <= 0
+				|| maxProbeInterval < probeInterval) {
+			throw new IllegalArgumentException("Invalid circuit breaker settings");
+		}
+		this.trackers = new ConcurrentHashMap<>();
+		this.failureThreshold = failureThreshold;
+		this.probeInterval = probeInterval;
+		this.maxProbeInterval = maxProbeInterval;
+	}
+
+	/**
+	 * Returns the registry shared by the engines of the process.
+	 */
+	public static TrackerHealthRegistry getInstance() {
+		return instance;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public long getProbeInterval() {
+		return probeInterval;
+	}
+
+	public long getMaxProbeInterval() {
+		return maxProbeInterval;
+	}
+
+	/**
+	 * Returns the health of the tracker, created on first use.
+	 */
+	public TrackerHealth getHealth(URI tracker) {
+		String endpoint = endpoint(tracker);
+		TrackerHealth health = trackers.get(endpoint);
+		if (health == null) {
+			TrackerHealth created = new TrackerHealth(endpoint, this);
+			health = trackers.putIfAbsent(endpoint, created);
+			if (health == null) {
+				health = created;
+			}
+		}
+		return health;
+	}
+
+	/**
+	 * Forgets everything learnt about the trackers, closing all circuits.
+	 */
+	public void clear() {
+		trackers.clear();
+	}
+
+	static String endpoint(URI tracker) {
+		String scheme = tracker.getScheme() == null ? ""
+				: tracker.getScheme().toLowerCase(Locale.ROOT);
+		String host = tracker.getHost() == null ? ""
+				: tracker.getHost().toLowerCase(Locale.ROOT);
+		int port = tracker.getPort();
+		if (port == -1) {
+			port = scheme.equals("https") ? 443 : 80;
+		}
+		return scheme + "://" + host + ":" + port;
+	}
+}
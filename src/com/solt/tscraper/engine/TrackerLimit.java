@@ -0,0 +1,62 @@
+package com.solt.tscraper.engine;
+
+/**
+ * How hard a tracker may be scraped: a token bucket on the rate at which
+ * exchanges are started, and a cap on the exchanges in flight.
+ *
+ * <p>
+ * An exchange is one UDP connect-then-scrape transaction or one HTTP scrape
+ * request. Retransmissions of a UDP request do not take a token.
+ * </p>
+ */
+public final class TrackerLimit {
+
+	/** No limit at all, the default. */
+	public static final TrackerLimit UNLIMITED = new TrackerLimit(0, 0, 0);
+
+	private final double requestsPerSecond;
+	private final int burst;
+	private final int maxInFlight;
+
+	/**
+	 * @param requestsPerSecond Rate at which the bucket refills, 0 for no
+	 * rate limit.
+	 * @param burst Capacity of the bucket: how many exchanges may start at
+	 * once after the tracker was left alone.
+	 * @param maxInFlight How many exchanges may be in flight at once, 0 for no
+	 * cap.
+	 */
+	public TrackerLimit(double requestsPerSecond, int burst, int maxInFlight) {
+		if (!(requestsPerSecond >= 0) || burst < 0 || maxInFlight < 0) {
+			throw new IllegalArgumentException("Negative tracker limit");
+		}
+		if (requestsPerSecond > 0 && burst < 1) {
+			throw new IllegalArgumentException("A rate limit needs a burst of at least 1");
+		}
+		this.requestsPerSecond = requestsPerSecond;
+		this.burst = burst;
+		this.maxInFlight = maxInFlight;
+	}
+
+	public double getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public boolean isUnlimited() {
+		return requestsPerSecond == 0 && maxInFlight == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "TrackerLimit [requestsPerSecond=" + requestsPerSecond + ", burst="
+				+ burst + ", maxInFlight=" + maxInFlight + "]";
+	}
+}
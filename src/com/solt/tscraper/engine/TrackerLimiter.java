@@ -0,0 +1,111 @@
+package com.solt.tscraper.engine;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Enforces a {@link TrackerLimit} inside an {@link EventLoop}.
+ *
+ * <p>
+ * Exchanges that may not start yet wait in a queue, in order, and the loop
+ * starts them as tokens refill and in-flight exchanges end. Trackers on the
+ * same host and port share one limiter. Like the rest of a loop's state, it
+ * is not thread-safe.
+ * </p>
+ */
+class TrackerLimiter {
+	private final TrackerLimit limit;
+	private final Queue<TrackerExchange> waiting;
+	private double tokens;
+	private long refilledAt;
+	private int inFlight;
+	private HashedWheelTimer.Timeout wakeUp;
+	private boolean draining;
+
+	TrackerLimiter(TrackerLimit limit, long now) {
+		this.limit = limit;
+		this.waiting = new LinkedList<>();
+		this.tokens = limit.getBurst();
+		this.refilledAt = now;
+	}
+
+	/**
+	 * Returns the exchanges waiting for their turn.
+	 */
+	public Queue<TrackerExchange> getWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * Takes a token and an in-flight slot if both are available.
+	 */
+	boolean tryAcquire(long now) {
+		if (limit.getMaxInFlight() > 0 && inFlight >= limit.getMaxInFlight()) {
+			return false;
+		}
+		if (limit.getRequestsPerSecond() > 0) {
+			refill(now);
+			if (tokens < 1) {
+				return false;
+			}
+			--tokens;
+		}
+		++inFlight;
+		return true;
+	}
+
+	/**
+	 * Frees the in-flight slot of an exchange that is over.
+	 */
+	void release() {
+		--inFlight;
+	}
+
+	/**
+	 * Returns in how many ms a token is available, or -1 if the next exchange
+	 * rather waits for an in-flight one to end.
+	 */
+	long getDelay(long now) {
+		if (limit.getMaxInFlight() > 0 && inFlight >= limit.getMaxInFlight()) {
+			return -1;
+		}
+		if (limit.getRequestsPerSecond() == 0) {
+			return 0;
+		}
+		refill(now);
+		return tokens >= 1 ? 0
+				: (long) Math.ceil((1 - tokens) * 1000 / limit.getRequestsPerSecond());
+	}
+
+	/**
+	 * Returns the timeout that drains the queue once a token is available,
+	 * if one is scheduled.
+	 */
+	public HashedWheelTimer.Timeout getWakeUp() {
+		return wakeUp;
+	}
+
+	public void setWakeUp(HashedWheelTimer.Timeout wakeUp) {
+		this.wakeUp = wakeUp;
+	}
+
+	/**
+	 * Returns <code>true</code> while the loop starts waiting exchanges, so
+	 * that exchanges ending right away do not drain the queue recursively.
+	 */
+	public boolean isDraining() {
+		return draining;
+	}
+
+	public void setDraining(boolean draining) {
+		this.draining = draining;
+	}
+
+	private void refill(long now) {
+		if (now > refilledAt) {
+			tokens = Math.min(limit.getBurst(),
+					tokens + (now - refilledAt) * limit.getRequestsPerSecond() / 1000);
+			refilledAt = now;
+		}
+	}
+}
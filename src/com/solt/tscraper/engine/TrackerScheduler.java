@@ -0,0 +1,994 @@
+package com.solt.tscraper.engine;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.tracker.ScrapeException;
+import com.solt.tscraper.tracker.http.HTTPTrackerScraper;
+import com.solt.tscraper.tracker.udp.TrackerResponse.InvalidResponseException;
+import com.solt.tscraper.tracker.udp.UDPTrackerMessages;
+import com.solt.tscraper.tracker.udp.UDPTrackerScraper;
+import com.solt.tscraper.util.BufferPool;
+import com.solt.tscraper.util.IntObjectMap;
+import com.solt.tscraper.util.Pair;
+
+/**
+ * The tracker bookkeeping of one event loop, whatever runs its I/O.
+ *
+ * <p>
+ * Submitted jobs are grouped by tracker into sessions, which resolve their
+ * host on the shared {@link HostResolver} and pack their jobs into UDP
+ * transactions of up to {@link UDPTrackerScraper#MAX_SCRAPE_HASHES} info
+ * hashes, or into multi-hash HTTP scrapes. UDP replies are matched to their
+ * transaction by id and decoded in place into primitive callbacks.
+ * </p>
+ *
+ * <p>
+ * Unanswered UDP requests are retransmitted with the exponential back-off
+ * of BEP 15, <code>timeout * 2 ^ n</code>, until the attempts run out.
+ * Connection ids are kept per tracker address by a {@link UDPConnection},
+ * which coalesces connect requests and renews ids before they expire.
+ * Trackers with a {@link TrackerLimit} get their exchanges started at its
+ * pace; the others get them all at once. The outcome of every exchange goes
+ * to the {@link TrackerHealthRegistry}, and trackers whose circuit is open
+ * fail at once.
+ * </p>
+ *
+ * <p>
+ * Subclasses supply the I/O: they send the datagrams, run the HTTP
+ * exchanges and feed back what they receive, all from the loop thread.
+ * Only {@link #submit} and {@link #cancel} may be called from other
+ * threads.
+ * </p>
+ */
+abstract class TrackerScheduler {
+
+	private static final Logger logger =
+		LoggerFactory.getLogger(TrackerScheduler.class);
+
+	/** Resolution of exchange timeouts, in ms. */
+	static final long TICK_DURATION = 100;
+
+	/** Number of ticks in one turn of the timer wheel. */
+	static final int WHEEL_SIZE = 512;
+
+	private final int index;
+	private final int loopMask;
+	private final long timeout;
+	private final int udpAttempts;
+	private final BufferPool buffers;
+	private final HashedWheelTimer timer;
+	private final Queue<List<Pair<ScrapeJob, List<URI>>>> submissions;
+	private final Queue<ScrapeJob> cancellations;
+	private final Map<URI, UDPTrackerSession> udpTrackers;
+	private final Map<URI, HTTPTrackerSession> httpTrackers;
+	private final IntObjectMap<UDPTransaction> transactions;
+	// HTTP exchanges of this loop until they are over.
+	private final Set<TrackerExchange> exchanges;
+	private final UDPReplyHandler udpReplies;
+	// Jobs with trackers of this loop, and how many are still unanswered.
+	private final Map<ScrapeJob, Integer> jobs;
+	private final Map<InetSocketAddress, UDPConnection> udpConnections;
+	private final HostResolver resolver;
+	private final TrackerLimit trackerLimit;
+	private final Map<String, TrackerLimit> hostLimits;
+	private final Map<String, TrackerLimiter> limiters;
+	private final TrackerHealthRegistry healthRegistry;
+	private final Random random;
+
+	/**
+	 * @param config The timeouts, limits and health registry of the loop.
+	 * @param index The position of the loop in its group, carried by the
+	 * low bits of its transaction ids.
+	 * @param loops The number of loops in the group.
+	 */
+	TrackerScheduler(ScrapeEngineConfig config, int index, int loops) {
+		this.index = index;
+		this.loopMask = Integer.highestOneBit(loops * 2 - 1) - 1;
+		this.timeout = config.getTimeout();
+		this.udpAttempts = config.getUdpAttempts();
+		this.buffers = new BufferPool();
+		this.timer = new HashedWheelTimer(TICK_DURATION, WHEEL_SIZE,
+				System.currentTimeMillis());
+		this.submissions = new ConcurrentLinkedQueue<>();
+		this.cancellations = new ConcurrentLinkedQueue<>();
+		this.udpTrackers = new HashMap<>();
+		this.httpTrackers = new HashMap<>();
+		this.transactions = new IntObjectMap<>();
+		this.exchanges = new HashSet<>();
+		this.udpReplies = new UDPReplyHandler();
+		this.jobs = new HashMap<>();
+		this.udpConnections = new HashMap<>();
+		this.resolver = HostResolver.getInstance();
+		this.trackerLimit = config.getTrackerLimit();
+		this.hostLimits = new HashMap<>(config.getHostTrackerLimits());
+		this.limiters = new HashMap<>();
+		this.healthRegistry = config.getHealthRegistry();
+		this.random = new Random();
+	}
+
+	/**
+	 * Asks the loop to process the queued submissions and cancellations.
+	 * Called from any thread.
+	 */
+	abstract void wakeUp();
+
+	/**
+	 * Runs the task on the loop. Called from any thread.
+	 */
+	abstract void execute(Runnable task);
+
+	/**
+	 * Sends a datagram borrowed from {@link #getBuffers()}, and gives the
+	 * buffer back to the pool once it is sent.
+	 */
+	abstract void sendUDP(ByteBuffer datagram, InetSocketAddress address);
+
+	/**
+	 * Creates the exchange sending one scrape request to an HTTP tracker.
+	 */
+	abstract TrackerExchange newHTTPExchange(HTTPTrackerSession session,
+			List<ScrapeJob> jobs, URL url);
+
+	/**
+	 * Starts an HTTP exchange. Its outcome is handed to {@link #finish}.
+	 */
+	abstract void startHTTP(TrackerExchange exchange);
+
+	/**
+	 * Frees the I/O resources of an HTTP exchange that is over or given up.
+	 */
+	abstract void closeHTTP(TrackerExchange exchange);
+
+	/**
+	 * Returns the position of the loop in its group.
+	 */
+	int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the position of the loop that issued the transaction id.
+	 */
+	int loopOf(int transactionId) {
+		return transactionId & loopMask;
+	}
+
+	/**
+	 * Returns the pool the loop borrows its I/O buffers from.
+	 */
+	BufferPool getBuffers() {
+		return buffers;
+	}
+
+	/**
+	 * Returns the timer of the loop's timeouts, driven by the loop.
+	 */
+	HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Returns how long to wait for a tracker exchange, in ms.
+	 */
+	long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Queues a batch of jobs, each with its share of trackers on this loop.
+	 * The batch is processed in one pass, so its jobs share their exchanges.
+	 */
+	void submit(List<Pair<ScrapeJob, List<URI>>> batch) {
+		submissions.add(batch);
+		wakeUp();
+	}
+
+	void cancel(ScrapeJob job) {
+		cancellations.add(job);
+		wakeUp();
+	}
+
+	/**
+	 * Groups the queued jobs by tracker and dispatches them, so that jobs
+	 * queued together share their tracker exchanges.
+	 */
+	void processSubmissions() {
+		Set<UDPTrackerSession> udpDirty = new LinkedHashSet<>();
+		Set<HTTPTrackerSession> httpDirty = new LinkedHashSet<>();
+		List<Pair<ScrapeJob, List<URI>>> batch;
+		while ((batch = submissions.poll()) != null) {
+			for (Pair<ScrapeJob, List<URI>> submission : batch) {
+				queue(submission.getLeft(), submission.getRight(), udpDirty, httpDirty);
+			}
+		}
+		for (UDPTrackerSession session : udpDirty) {
+			if (session.getAddress() != null) {
+				dispatch(session);
+			}
+		}
+		for (HTTPTrackerSession session : httpDirty) {
+			if (session.getAddress() != null) {
+				dispatch(session);
+			}
+		}
+	}
+
+	/**
+	 * Adds the job to the pending jobs of its trackers and collects the
+	 * sessions to dispatch.
+	 */
+	private void queue(ScrapeJob job, List<URI> trackers,
+			Set<UDPTrackerSession> udpDirty, Set<HTTPTrackerSession> httpDirty) {
+		if (job.isDone()) {
+			return;
+		}
+		Integer unanswered = jobs.get(job);
+		jobs.put(job, trackers.size() + (unanswered == null ? 0 : unanswered));
+		for (URI tracker : trackers) {
+			String protocol = tracker.getScheme() == null ? ""
+					: tracker.getScheme().toLowerCase();
+			try {
+				if (protocol.equals("udp")) {
+					UDPTrackerSession session = getUDPSession(tracker);
+					if (checkHealth(job, session)) {
+						session.getPending().add(job);
+						udpDirty.add(session);
+					}
+				} else if (protocol.equals("http") || protocol.equals("https")) {
+					HTTPTrackerSession session = getHTTPSession(tracker);
+					if (checkHealth(job, session)) {
+						session.getPending().add(job);
+						httpDirty.add(session);
+					}
+				} else {
+					complete(job, tracker, null, new ScrapeException(
+							"Doesn't support protocol of tracker: " + tracker));
+				}
+			} catch (IOException | RuntimeException e) {
+				complete(job, tracker, null, e);
+			}
+		}
+	}
+
+	/**
+	 * Releases the exchanges of cancelled jobs that no other job needs.
+	 */
+	void processCancellations() {
+		ScrapeJob job;
+		while ((job = cancellations.poll()) != null) {
+			jobs.remove(job);
+			// Exchanges of the job on other loops are left to their owner.
+			for (UDPTransaction tx : job.getTransactions()) {
+				if (transactions.get(tx.getTransactionId()) == tx
+						&& allDone(tx.getJobs())) {
+					untrack(tx);
+				}
+			}
+			for (TrackerExchange exchange : job.getExchanges()) {
+				if (exchanges.contains(exchange) && allDone(exchange.getJobs())) {
+					abandon(exchange);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fails every job of the loop, the queued ones included, and gives up
+	 * the exchanges in flight. The jobs are failed first, so that no waiting
+	 * exchange starts meanwhile.
+	 */
+	void failAll() {
+		ScrapeException cause = new ScrapeException("Scrape engine shut down");
+		List<Pair<ScrapeJob, List<URI>>> batch;
+		while ((batch = submissions.poll()) != null) {
+			for (Pair<ScrapeJob, List<URI>> submission : batch) {
+				jobs.put(submission.getLeft(), submission.getRight().size());
+			}
+		}
+		for (ScrapeJob job : jobs.keySet()) {
+			job.failed(cause);
+		}
+		jobs.clear();
+		for (TrackerExchange exchange : new ArrayList<>(exchanges)) {
+			abandon(exchange);
+		}
+		transactions.clear();
+	}
+
+	static boolean allDone(List<ScrapeJob> batch) {
+		for (ScrapeJob job : batch) {
+			if (!job.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fails the job on the tracker right away if its circuit is open.
+	 *
+	 * @return <code>true</code> if the tracker is to be scraped.
+	 */
+	private boolean checkHealth(ScrapeJob job, TrackerSession session) {
+		TrackerHealth health = session.getHealth();
+		if (health == null || health.allowRequest(System.currentTimeMillis())) {
+			return true;
+		}
+		complete(job, session.getTracker(), null, new ScrapeException(
+				"Skipping tracker after repeated failures: " + session.getTracker()));
+		return false;
+	}
+
+	private UDPTrackerSession getUDPSession(URI tracker) {
+		UDPTrackerSession session = udpTrackers.get(tracker);
+		if (session == null) {
+			session = new UDPTrackerSession(tracker);
+			resolve(session, tracker.getHost(), tracker.getPort());
+			session.setHealth(health(tracker));
+			session.setLimiter(limiter("udp", tracker.getHost(), tracker.getPort()));
+			udpTrackers.put(tracker, session);
+		} else if (session.needsResolve(System.currentTimeMillis())) {
+			resolve(session, tracker.getHost(), tracker.getPort());
+		}
+		return session;
+	}
+
+	private HTTPTrackerSession getHTTPSession(URI tracker) throws IOException {
+		HTTPTrackerSession session = httpTrackers.get(tracker);
+		if (session == null) {
+			URL scrapeUrl = HTTPTrackerScraper.getScrapeUrl(tracker);
+			int port = scrapeUrl.getPort() == -1 ? scrapeUrl.getDefaultPort()
+					: scrapeUrl.getPort();
+			session = new HTTPTrackerSession(tracker, scrapeUrl.getHost(), port,
+					scrapeUrl.getProtocol().equalsIgnoreCase("https"));
+			resolve(session, scrapeUrl.getHost(), port);
+			session.setHealth(health(tracker));
+			session.setLimiter(limiter(scrapeUrl.getProtocol(), scrapeUrl.getHost(), port));
+			httpTrackers.put(tracker, session);
+		} else if (session.needsResolve(System.currentTimeMillis())) {
+			resolve(session, session.getHost(), session.getPort());
+		}
+		return session;
+	}
+
+	private TrackerHealth health(URI tracker) {
+		return healthRegistry == null ? null : healthRegistry.getHealth(tracker);
+	}
+
+	/**
+	 * Returns the limiter shared by the trackers on the given scheme, host
+	 * and port, or <code>null</code> if they are unlimited.
+	 */
+	private TrackerLimiter limiter(String scheme, String host, int port) {
+		host = host.toLowerCase(Locale.ROOT);
+		TrackerLimit limit = hostLimits.get(host);
+		if (limit == null) {
+			limit = trackerLimit;
+		}
+		if (limit.isUnlimited()) {
+			return null;
+		}
+		String key = scheme.toLowerCase(Locale.ROOT) + "://" + host + ":" + port;
+		TrackerLimiter limiter = limiters.get(key);
+		if (limiter == null) {
+			limiter = new TrackerLimiter(limit, System.currentTimeMillis());
+			limiters.put(key, limiter);
+		}
+		return limiter;
+	}
+
+	static void checkAddress(String host, int port) {
+		if (host == null || port < 0 || port > 0xFFFF) {
+			throw new ScrapeException("Invalid tracker address " + host + ":" + port);
+		}
+	}
+
+	/**
+	 * Looks up the host of the tracker on the shared resolver. Jobs queue up
+	 * in the session until the answer is back on the loop, unless an earlier
+	 * address is being refreshed.
+	 */
+	private void resolve(TrackerSession session, String host, int port) {
+		checkAddress(host, port);
+		session.setResolving(true);
+		resolver.resolve(host).whenComplete((address, cause) ->
+			execute(() -> resolved(session, address, port, cause)));
+	}
+
+	private void resolved(TrackerSession session, InetAddress address, int port,
+			Throwable cause) {
+		URI tracker = session.getTracker();
+		session.setResolving(false);
+		if (cause != null) {
+			if (session.getHealth() != null) {
+				session.getHealth().failed(System.currentTimeMillis());
+			}
+			// Forget the session so that later jobs look the host up again
+			// once the failure has left the resolver's cache.
+			udpTrackers.remove(tracker, session);
+			httpTrackers.remove(tracker, session);
+			ScrapeJob job;
+			while ((job = session.getPending().poll()) != null) {
+				complete(job, tracker, null, cause);
+			}
+			return;
+		}
+		InetSocketAddress resolved = new InetSocketAddress(address, port);
+		boolean moved = !resolved.equals(session.getAddress());
+		if (moved && session.getAddress() != null) {
+			logger.info("Tracker {} moved from {} to {}", tracker,
+					session.getAddress(), resolved);
+		}
+		session.setAddress(resolved, System.currentTimeMillis());
+		if (session instanceof UDPTrackerSession) {
+			if (moved) {
+				// Exchanges in flight stay with the old connection.
+				((UDPTrackerSession) session).setConnection(udpConnection(resolved));
+			}
+			dispatch((UDPTrackerSession) session);
+		} else {
+			dispatch((HTTPTrackerSession) session);
+		}
+	}
+
+	private UDPConnection udpConnection(InetSocketAddress address) {
+		UDPConnection connection = udpConnections.get(address);
+		if (connection == null) {
+			connection = new UDPConnection(address);
+			udpConnections.put(address, connection);
+		}
+		return connection;
+	}
+
+	/**
+	 * Packs the pending jobs of a tracker into scrape transactions of up to
+	 * {@link UDPTrackerScraper#MAX_SCRAPE_HASHES} info hashes each.
+	 */
+	private void dispatch(UDPTrackerSession session) {
+		Queue<ScrapeJob> pending = session.getPending();
+		while (!pending.isEmpty()) {
+			List<ScrapeJob> batch = new ArrayList<>(Math.min(pending.size(),
+					UDPTrackerScraper.MAX_SCRAPE_HASHES));
+			while (batch.size() < UDPTrackerScraper.MAX_SCRAPE_HASHES
+					&& !pending.isEmpty()) {
+				ScrapeJob job = pending.poll();
+				if (!job.isDone()) {
+					batch.add(job);
+				}
+			}
+			if (batch.isEmpty()) {
+				break;
+			}
+			UDPTransaction tx = new UDPTransaction(session, session.getConnection(),
+					batch);
+			for (ScrapeJob job : batch) {
+				job.getTransactions().add(tx);
+			}
+			admit(tx);
+		}
+	}
+
+	/**
+	 * Sends the pending jobs of a tracker as multi-hash scrape requests,
+	 * split to keep every url under the length limit.
+	 */
+	private void dispatch(HTTPTrackerSession session) {
+		List<ScrapeJob> batch = new ArrayList<>(session.getPending().size());
+		for (ScrapeJob job : session.getPending()) {
+			if (!job.isDone()) {
+				batch.add(job);
+			}
+		}
+		session.getPending().clear();
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<byte[]> infoHashes = new ArrayList<>(batch.size());
+		for (ScrapeJob job : batch) {
+			infoHashes.add(job.getInfoHash());
+		}
+		List<Pair<URL, List<byte[]>>> urls;
+		try {
+			urls = HTTPTrackerScraper.buildScrapeRequestUrls(session.getTracker(),
+					infoHashes);
+		} catch (IOException | RuntimeException e) {
+			for (ScrapeJob job : batch) {
+				complete(job, session.getTracker(), null, e);
+			}
+			return;
+		}
+		int offset = 0;
+		for (Pair<URL, List<byte[]>> url : urls) {
+			List<ScrapeJob> carried = batch.subList(offset,
+					offset + url.getRight().size());
+			offset += carried.size();
+			TrackerExchange exchange = newHTTPExchange(session, carried, url.getLeft());
+			exchanges.add(exchange);
+			for (ScrapeJob job : carried) {
+				job.getExchanges().add(exchange);
+			}
+			admit(exchange);
+		}
+	}
+
+	/**
+	 * Starts the exchange, or queues it while its tracker is at its limit.
+	 */
+	private void admit(TrackerExchange exchange) {
+		TrackerLimiter limiter = exchange.getSession().getLimiter();
+		if (limiter == null) {
+			begin(exchange);
+		} else {
+			limiter.getWaiting().add(exchange);
+			drain(limiter);
+		}
+	}
+
+	/**
+	 * Starts the waiting exchanges the limiter lets through, and schedules
+	 * the next round when it runs out of tokens.
+	 */
+	private void drain(TrackerLimiter limiter) {
+		if (limiter.isDraining()) {
+			return;
+		}
+		limiter.setDraining(true);
+		long now = System.currentTimeMillis();
+		Queue<TrackerExchange> waiting = limiter.getWaiting();
+		TrackerExchange exchange;
+		try {
+			while ((exchange = waiting.peek()) != null) {
+				if (allDone(exchange.getJobs())) {
+					// Cancelled while waiting.
+					waiting.poll();
+					abandon(exchange);
+				} else if (limiter.tryAcquire(now)) {
+					waiting.poll();
+					if (exchange instanceof UDPTransaction) {
+						fill((UDPTransaction) exchange, waiting);
+					}
+					exchange.setAdmitted(true);
+					begin(exchange);
+				} else {
+					break;
+				}
+			}
+		} finally {
+			limiter.setDraining(false);
+		}
+		long delay;
+		if (exchange != null && limiter.getWakeUp() == null
+				&& (delay = limiter.getDelay(now)) >= 0) {
+			limiter.setWakeUp(timer.schedule(() -> {
+				limiter.setWakeUp(null);
+				drain(limiter);
+			}, now + delay));
+		}
+	}
+
+	/**
+	 * Moves the jobs of the transactions waiting behind an admitted one for
+	 * the same tracker connection into it, up to
+	 * {@link UDPTrackerScraper#MAX_SCRAPE_HASHES}. Batches dispatched apart
+	 * then share one token and one scrape packet; emptied transactions are
+	 * dropped from the queue.
+	 */
+	private void fill(UDPTransaction tx, Queue<TrackerExchange> waiting) {
+		List<ScrapeJob> batch = tx.getJobs();
+		Iterator<TrackerExchange> it = waiting.iterator();
+		while (batch.size() < UDPTrackerScraper.MAX_SCRAPE_HASHES && it.hasNext()) {
+			TrackerExchange next = it.next();
+			if (!(next instanceof UDPTransaction) || next.getSession() != tx.getSession()
+					|| ((UDPTransaction) next).getConnection() != tx.getConnection()) {
+				continue;
+			}
+			List<ScrapeJob> moved = next.getJobs().subList(0, Math.min(
+					next.getJobs().size(), UDPTrackerScraper.MAX_SCRAPE_HASHES - batch.size()));
+			for (ScrapeJob job : moved) {
+				job.getTransactions().remove(next);
+				job.getTransactions().add(tx);
+			}
+			batch.addAll(moved);
+			moved.clear();
+			if (next.getJobs().isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Frees the limiter slot of an exchange that is over.
+	 */
+	private void release(TrackerExchange exchange) {
+		if (exchange.isAdmitted()) {
+			exchange.setAdmitted(false);
+			TrackerLimiter limiter = exchange.getSession().getLimiter();
+			limiter.release();
+			drain(limiter);
+		}
+	}
+
+	private void begin(TrackerExchange exchange) {
+		exchange.setStartedAt(System.currentTimeMillis());
+		if (exchange instanceof UDPTransaction) {
+			connect((UDPTransaction) exchange);
+		} else {
+			startHTTP(exchange);
+		}
+	}
+
+	/**
+	 * Records the outcome of an exchange in the health of its tracker.
+	 */
+	private void report(TrackerExchange exchange, boolean succeeded) {
+		TrackerHealth health = exchange.getSession().getHealth();
+		if (health == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (succeeded) {
+			health.succeeded(now - exchange.getStartedAt());
+		} else {
+			health.failed(now);
+		}
+	}
+
+	/**
+	 * Forgets an exchange, leaving its jobs as they are.
+	 */
+	private void abandon(TrackerExchange exchange) {
+		if (exchange instanceof UDPTransaction) {
+			untrack((UDPTransaction) exchange);
+			return;
+		}
+		if (!exchanges.remove(exchange)) {
+			return;
+		}
+		closeHTTP(exchange);
+		for (ScrapeJob job : exchange.getJobs()) {
+			job.getExchanges().remove(exchange);
+		}
+		release(exchange);
+	}
+
+	/**
+	 * Completes the jobs of an HTTP exchange with the states read from the
+	 * tracker, or fails them. Exchanges already over are ignored.
+	 */
+	void finish(TrackerExchange exchange, Map<ByteBuffer, TorrentState> states,
+			Throwable cause) {
+		if (!exchanges.contains(exchange)) {
+			return;
+		}
+		abandon(exchange);
+		report(exchange, cause == null);
+		URI tracker = exchange.getSession().getTracker();
+		for (ScrapeJob job : exchange.getJobs()) {
+			if (cause != null) {
+				complete(job, tracker, null, cause);
+				continue;
+			}
+			TorrentState state = states.get(ByteBuffer.wrap(job.getInfoHash()));
+			if (state != null) {
+				complete(job, tracker, state, null);
+			} else {
+				complete(job, tracker, null, new ScrapeException(
+						"Info hash missing from scrape response"));
+			}
+		}
+	}
+
+	/**
+	 * Sends the transaction with the connection id of its tracker. Without a
+	 * valid one, the transaction sends the connect request itself, or waits
+	 * for the pending one.
+	 */
+	private void connect(UDPTransaction tx) {
+		UDPConnection connection = tx.getConnection();
+		long now = System.currentTimeMillis();
+		if (connection.isValid(now)) {
+			if (connection.needsRefresh(now)) {
+				UDPTransaction refresh = new UDPTransaction(tx.getSession(),
+						connection, Collections.<ScrapeJob>emptyList());
+				connection.setConnecting(refresh);
+				register(refresh);
+				send(refresh);
+			}
+			tx.setConnectionId(connection.getConnectionId());
+		} else if (connection.getConnecting() != null) {
+			connection.getWaiting().add(tx);
+			return;
+		} else {
+			connection.setConnecting(tx);
+		}
+		register(tx);
+		send(tx);
+	}
+
+	/**
+	 * Sends the transactions that waited for a connection id.
+	 */
+	private void connected(UDPConnection connection) {
+		UDPTransaction tx;
+		while ((tx = connection.getWaiting().poll()) != null) {
+			if (allDone(tx.getJobs())) {
+				untrack(tx);
+			} else {
+				tx.setConnectionId(connection.getConnectionId());
+				register(tx);
+				send(tx);
+			}
+		}
+	}
+
+	/**
+	 * Lets the next waiting transaction connect after the pending connect
+	 * request was given up.
+	 */
+	private void reconnect(UDPConnection connection) {
+		connection.setConnecting(null);
+		UDPTransaction tx;
+		while ((tx = connection.getWaiting().poll()) != null) {
+			if (allDone(tx.getJobs())) {
+				untrack(tx);
+			} else {
+				connect(tx);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Assigns a fresh transaction id to the exchange and (re)arms its
+	 * deadline for a first attempt.
+	 */
+	private void register(UDPTransaction tx) {
+		int transactionId;
+		do {
+			transactionId = random.nextInt() & ~loopMask | index;
+		} while (transactions.containsKey(transactionId));
+		tx.setTransactionId(transactionId);
+		tx.setAttempt(0);
+		transactions.put(transactionId, tx);
+		expireAt(tx, System.currentTimeMillis() + timeout);
+	}
+
+	/**
+	 * Replaces the pending timeout of the exchange.
+	 */
+	private void expireAt(UDPTransaction tx, long deadline) {
+		if (tx.getTimeout() != null) {
+			tx.getTimeout().cancel();
+		}
+		tx.setTimeout(timer.schedule(() -> expire(tx), deadline));
+	}
+
+	private void expire(UDPTransaction tx) {
+		if (allDone(tx.getJobs())) {
+			untrack(tx);
+		} else if (!retransmit(tx, System.currentTimeMillis())) {
+			fail(tx, new ScrapeException("Timeout while scraping to tracker: "
+					+ tx.getSession().getTracker()));
+		}
+	}
+
+	/**
+	 * Sends the current request of the exchange: a connect request until a
+	 * connection id is known, a scrape request afterwards.
+	 */
+	private void send(UDPTransaction tx) {
+		ByteBuffer request;
+		if (tx.isConnecting()) {
+			request = UDPTrackerScraper.createConnectRequest(tx.getTransactionId(),
+					buffers);
+		} else {
+			request = UDPTrackerScraper.createScrapeRequest(tx.getConnectionId(),
+					tx.getTransactionId(), tx.getInfoHashes(), buffers);
+		}
+		sendUDP(request, tx.getConnection().getAddress());
+	}
+
+	/**
+	 * Sends the request of an expired exchange again, waiting twice as long
+	 * as for the previous attempt. The transaction id is kept so that a late
+	 * reply to an earlier attempt is still accepted.
+	 *
+	 * @return <code>false</code> if the exchange ran out of attempts.
+	 */
+	private boolean retransmit(UDPTransaction tx, long now) {
+		int attempt = tx.getAttempt() + 1;
+		if (attempt >= udpAttempts) {
+			return false;
+		}
+		logger.debug("Retransmitting to {} (attempt {})",
+				tx.getSession().getTracker(), attempt);
+		tx.setAttempt(attempt);
+		expireAt(tx, now + (timeout << attempt));
+		send(tx);
+		return true;
+	}
+
+	/**
+	 * Forgets a finished or abandoned exchange, releasing its transaction id.
+	 */
+	private void untrack(UDPTransaction tx) {
+		transactions.remove(tx.getTransactionId(), tx);
+		UDPConnection connection = tx.getConnection();
+		if (connection != null && connection.getConnecting() == tx) {
+			reconnect(connection);
+		}
+		if (tx.getTimeout() != null) {
+			tx.getTimeout().cancel();
+		}
+		for (ScrapeJob job : tx.getJobs()) {
+			job.getTransactions().remove(tx);
+		}
+		release(tx);
+	}
+
+	/**
+	 * Decodes a datagram received from a tracker, between the buffer's
+	 * position and limit, and applies it to the transaction it answers.
+	 */
+	void received(ByteBuffer buffer, SocketAddress address) {
+		if (buffer.remaining() < UDPTrackerMessages.REPLY_HEADER_LENGTH) {
+			return;
+		}
+		UDPTransaction tx = transactions.get(UDPTrackerMessages.getTransactionId(buffer));
+		if (tx == null || !tx.getConnection().getAddress().equals(address)) {
+			// Stray or late reply.
+			return;
+		}
+		udpReplies.start(tx);
+		try {
+			UDPTrackerMessages.decode(buffer, udpReplies);
+			udpReplies.finish();
+		} catch (InvalidResponseException e) {
+			fail(tx, e);
+		} finally {
+			udpReplies.start(null);
+		}
+	}
+
+	private void fail(UDPTransaction tx, Throwable cause) {
+		UDPConnection connection = tx.getConnection();
+		if (connection.getConnecting() == tx) {
+			// The transactions waiting for the connect request share its fate.
+			UDPTransaction waiting;
+			while ((waiting = connection.getWaiting().poll()) != null) {
+				untrack(waiting);
+				for (ScrapeJob job : waiting.getJobs()) {
+					complete(job, tx.getSession().getTracker(), null, cause);
+				}
+			}
+		}
+		untrack(tx);
+		report(tx, false);
+		for (ScrapeJob job : tx.getJobs()) {
+			complete(job, tx.getSession().getTracker(), null, cause);
+		}
+	}
+
+	private void complete(ScrapeJob job, URI tracker, TorrentState state, Throwable cause) {
+		if (cause == null) {
+			job.trackerSucceeded(tracker, state);
+		} else {
+			job.trackerFailed(tracker, cause);
+		}
+		Integer unanswered = jobs.get(job);
+		if (unanswered != null) {
+			if (job.isDone() || unanswered <= 1) {
+				jobs.remove(job);
+			} else {
+				jobs.put(job, unanswered - 1);
+			}
+		}
+	}
+
+	/**
+	 * Applies the fields of a decoded UDP reply to the transaction it
+	 * answers. One instance serves every datagram of the loop.
+	 */
+	private class UDPReplyHandler implements UDPTrackerMessages.Handler {
+		private UDPTransaction tx;
+		// Entries of the scrape reply, -1 for other replies.
+		private int answered;
+
+		void start(UDPTransaction tx) {
+			this.tx = tx;
+			this.answered = -1;
+		}
+
+		@Override
+		public void onConnect(int transactionId, long connectionId) {
+			if (!tx.isConnecting()) {
+				duplicate();
+				return;
+			}
+			UDPConnection connection = tx.getConnection();
+			boolean pending = connection.getConnecting() == tx;
+			if (pending) {
+				connection.connected(connectionId, System.currentTimeMillis());
+			}
+			tx.setConnectionId(connectionId);
+			if (tx.getJobs().isEmpty()) {
+				// A refresh of the connection id.
+				untrack(tx);
+			} else {
+				transactions.remove(tx.getTransactionId());
+				register(tx);
+				send(tx);
+			}
+			if (pending) {
+				connected(connection);
+			}
+		}
+
+		@Override
+		public boolean onScrape(int transactionId, int count) {
+			if (tx.isConnecting()) {
+				duplicate();
+				return false;
+			}
+			untrack(tx);
+			report(tx, true);
+			answered = 0;
+			return true;
+		}
+
+		@Override
+		public void onScrapeEntry(int transactionId, int index, int complete,
+				int downloaded, int incomplete) {
+			List<ScrapeJob> batch = tx.getJobs();
+			if (index < batch.size()) {
+				complete(batch.get(index), tx.getSession().getTracker(),
+						new TorrentState(complete, downloaded, incomplete), null);
+			}
+			answered = index + 1;
+		}
+
+		@Override
+		public void onError(int transactionId, String message) {
+			fail(tx, new ScrapeException(message));
+		}
+
+		/**
+		 * Fails the jobs a scrape reply left out.
+		 */
+		void finish() {
+			List<ScrapeJob> batch = tx.getJobs();
+			for (int i = answered; answered >= 0 && i < batch.size(); ++i) {
+				complete(batch.get(i), tx.getSession().getTracker(), null,
+						new ScrapeException("Info hash missing from scrape response"));
+			}
+		}
+
+		private void duplicate() {
+			// Reply to a request this exchange no longer waits for.
+			logger.debug("Dropping duplicate reply from {}", tx.getSession().getTracker());
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.solt.tscraper.engine;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Per-tracker state inside an {@link EventLoop}.
+ *
+ * <p>
+ * Jobs submitted for the tracker are queued here until its host is resolved
+ * and the loop dispatches them. The exchanges carrying them then start at
+ * the pace of the tracker's {@link TrackerLimiter}, if it has one.
+ * </p>
+ *
+ * <p>
+ * The address is looked up again once it is older than
+ * {@link HostResolver#POSITIVE_TTL}; the old one is used until the answer
+ * is back.
+ * </p>
+ */
+abstract class TrackerSession {
+	private final URI tracker;
+	private final Queue<ScrapeJob> pending;
+	private InetSocketAddress address;
+	private long resolvedAt;
+	private boolean resolving;
+	private TrackerLimiter limiter;
+	private TrackerHealth health;
+
+	TrackerSession(URI tracker) {
+		this.tracker = tracker;
+		this.pending = new LinkedList<>();
+	}
+
+	public URI getTracker() {
+		return tracker;
+	}
+
+	/**
+	 * Returns the resolved address of the tracker, or <code>null</code> while
+	 * its host is being resolved.
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public void setAddress(InetSocketAddress address, long resolvedAt) {
+		this.address = address;
+		this.resolvedAt = resolvedAt;
+	}
+
+	/**
+	 * Returns <code>true</code> while a lookup of the host is pending.
+	 */
+	public boolean isResolving() {
+		return resolving;
+	}
+
+	public void setResolving(boolean resolving) {
+		this.resolving = resolving;
+	}
+
+	/**
+	 * Returns <code>true</code> if the address has outlived the resolver's
+	 * cache and no lookup is pending.
+	 */
+	public boolean needsResolve(long now) {
+		return address != null && !resolving
+				&& now - resolvedAt >= HostResolver.POSITIVE_TTL;
+	}
+
+	public Queue<ScrapeJob> getPending() {
+		return pending;
+	}
+
+	/**
+	 * Returns the limiter of the tracker, or <code>null</code> if it is
+	 * unlimited.
+	 */
+	public TrackerLimiter getLimiter() {
+		return limiter;
+	}
+
+	public void setLimiter(TrackerLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	/**
+	 * Returns the health of the tracker, or <code>null</code> if the engine
+	 * does not keep track of it.
+	 */
+	public TrackerHealth getHealth() {
+		return health;
+	}
+
+	public void setHealth(TrackerHealth health) {
+		this.health = health;
+	}
+}
@@ -0,0 +1,87 @@
+package com.solt.tscraper.engine;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BEP 15 connection of an {@link EventLoop} with one UDP tracker
+ * address.
+ *
+ * <p>
+ * At most one connect request is in flight per tracker: transactions that
+ * need a connection id while it is pending are parked here and sent as soon
+ * as it arrives. A connection id is used for {@link #LIFETIME} and renewed
+ * once it is older than {@link #REFRESH_AGE}, by a connect request of its
+ * own, so that scrapes never wait for a connect while the tracker is used.
+ * </p>
+ */
+class UDPConnection {
+
+	/** How long a connection id is used, in ms. Clients may use it for a minute. */
+	static final long LIFETIME = TimeUnit.MINUTES.toMillis(1);
+
+	/** Age of a connection id at which it is renewed, in ms. */
+	static final long REFRESH_AGE = TimeUnit.SECONDS.toMillis(45);
+
+	private final InetSocketAddress address;
+	private final Queue<UDPTransaction> waiting;
+	private long connectionId;
+	private long connectedAt;
+	private boolean connected;
+	private UDPTransaction connecting;
+
+	UDPConnection(InetSocketAddress address) {
+		this.address = address;
+		this.waiting = new LinkedList<>();
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns <code>true</code> if the connection id may still be used.
+	 */
+	boolean isValid(long now) {
+		return connected && now - connectedAt < LIFETIME;
+	}
+
+	/**
+	 * Returns <code>true</code> if the connection id is valid but should be
+	 * renewed, and no connect request is pending.
+	 */
+	boolean needsRefresh(long now) {
+		return connecting == null && isValid(now) && now - connectedAt >= REFRESH_AGE;
+	}
+
+	void connected(long connectionId, long now) {
+		this.connectionId = connectionId;
+		this.connectedAt = now;
+		this.connected = true;
+		this.connecting = null;
+	}
+
+	public long getConnectionId() {
+		return connectionId;
+	}
+
+	/**
+	 * Returns the transaction whose connect request is pending, if any.
+	 */
+	public UDPTransaction getConnecting() {
+		return connecting;
+	}
+
+	public void setConnecting(UDPTransaction connecting) {
+		this.connecting = connecting;
+	}
+
+	/**
+	 * Returns the transactions waiting for the pending connect request.
+	 */
+	public Queue<UDPTransaction> getWaiting() {
+		return waiting;
+	}
+}
@@ -0,0 +1,28 @@
+package com.solt.tscraper.engine;
+
+import java.net.URI;
+
+/**
+ * Per-tracker state of a UDP tracker inside an {@link EventLoop}. Pending
+ * jobs are dispatched as UDP transactions.
+ */
+class UDPTrackerSession extends TrackerSession {
+	private UDPConnection connection;
+
+	UDPTrackerSession(URI tracker) {
+		super(tracker);
+	}
+
+	/**
+	 * Returns the connection with the tracker address, shared by the
+	 * trackers at that address, or <code>null</code> while its host is being
+	 * resolved.
+	 */
+	public UDPConnection getConnection() {
+		return connection;
+	}
+
+	public void setConnection(UDPConnection connection) {
+		this.connection = connection;
+	}
+}
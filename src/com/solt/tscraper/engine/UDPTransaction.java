@@ -0,0 +1,125 @@
+package com.solt.tscraper.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.solt.tscraper.tracker.udp.UDPTrackerScraper;
+
+/**
+ * One connect-then-scrape exchange with a UDP tracker, covering a batch of
+ * up to {@link UDPTrackerScraper#MAX_SCRAPE_HASHES} jobs.
+ */
+class UDPTransaction implements TrackerExchange {
+	private final UDPTrackerSession session;
+	private final UDPConnection connection;
+	private final List<ScrapeJob> jobs;
+	private List<byte[]> infoHashes;
+	private int transactionId;
+	private long connectionId;
+	private int attempt;
+	private HashedWheelTimer.Timeout timeout;
+	private boolean admitted;
+	private long startedAt;
+
+	/**
+	 * @param connection The connection with the tracker address the exchange
+	 * goes to. It is kept even if the tracker moves meanwhile.
+	 */
+	UDPTransaction(UDPTrackerSession session, UDPConnection connection,
+			List<ScrapeJob> jobs) {
+		this.session = session;
+		this.connection = connection;
+		this.jobs = jobs;
+		this.connectionId = UDPTrackerScraper.DEFAULT_CONNECTION_ID;
+	}
+
+	@Override
+	public UDPTrackerSession getSession() {
+		return session;
+	}
+
+	public UDPConnection getConnection() {
+		return connection;
+	}
+
+	@Override
+	public List<ScrapeJob> getJobs() {
+		return jobs;
+	}
+
+	/**
+	 * Returns the info hashes of the jobs, in order. The list is built once
+	 * and reused by every retransmission.
+	 */
+	public List<byte[]> getInfoHashes() {
+		if (infoHashes == null) {
+			infoHashes = new ArrayList<>(jobs.size());
+			for (ScrapeJob job : jobs) {
+				infoHashes.add(job.getInfoHash());
+			}
+		}
+		return infoHashes;
+	}
+
+	public int getTransactionId() {
+		return transactionId;
+	}
+
+	public void setTransactionId(int transactionId) {
+		this.transactionId = transactionId;
+	}
+
+	public long getConnectionId() {
+		return connectionId;
+	}
+
+	public void setConnectionId(long connectionId) {
+		this.connectionId = connectionId;
+	}
+
+	/**
+	 * Returns how many times the current request was retransmitted.
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	public void setAttempt(int attempt) {
+		this.attempt = attempt;
+	}
+
+	public boolean isConnecting() {
+		return connectionId == UDPTrackerScraper.DEFAULT_CONNECTION_ID;
+	}
+
+	/**
+	 * Returns the pending timeout of the current attempt, if any.
+	 */
+	public HashedWheelTimer.Timeout getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(HashedWheelTimer.Timeout timeout) {
+		this.timeout = timeout;
+	}
+
+	@Override
+	public boolean isAdmitted() {
+		return admitted;
+	}
+
+	@Override
+	public void setAdmitted(boolean admitted) {
+		this.admitted = admitted;
+	}
+
+	@Override
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	@Override
+	public void setStartedAt(long startedAt) {
+		this.startedAt = startedAt;
+	}
+}
@@ -0,0 +1,45 @@
+package com.solt.tscraper.torrent.impl;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.solt.tscraper.common.Torrent;
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.engine.ScrapeEngine;
+import com.solt.tscraper.torrent.AsyncTorrentScraper;
+import com.solt.tscraper.torrent.ScrapeListener;
+
+/**
+ * Non-blocking scraper running on the {@link ScrapeEngine} I/O thread.
+ *
+ * <p>
+ * The returned future completes with the aggregated state of all trackers,
+ * or exceptionally when none of them answered. Cancelling it releases the
+ * torrent's in-flight tracker exchanges.
+ * </p>
+ */
+public class AsyncTorrentScraperImpl implements AsyncTorrentScraper {
+	private final ScrapeEngine engine;
+	private final Torrent torrent;
+	private final CompositeScrapeListener listeners;
+
+	public AsyncTorrentScraperImpl(Torrent torrent) {
+		this(torrent, ScrapeEngine.getInstance());
+	}
+
+	public AsyncTorrentScraperImpl(Torrent torrent, ScrapeEngine engine) {
+		this.torrent = torrent;
+		this.engine = engine;
+		listeners = new CompositeScrapeListener();
+	}
+
+	@Override
+	public CompletableFuture<TorrentState> scrape() {
+		return engine.submit(torrent, listeners).getFuture();
+	}
+
+	@Override
+	public void addScrapeListener(ScrapeListener listener) {
+		listeners.addScrapeListener(listener);
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.solt.tscraper.torrent.impl;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.solt.tscraper.common.Torrent;
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.torrent.ScrapeListener;
+
+/**
+ * Fans scrape events out to every registered listener. Listeners may be
+ * added while events are delivered from the engine thread.
+ */
+class CompositeScrapeListener implements ScrapeListener {
+	private final List<ScrapeListener> listeners = new CopyOnWriteArrayList<>();
+
+	public void addScrapeListener(ScrapeListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void onTrackerSuccess(Torrent torrent, URI tracker,
+			TorrentState state) {
+		for (ScrapeListener listener : listeners) {
+			listener.onTrackerSuccess(torrent, tracker, state);
+		}
+	}
+
+	@Override
+	public void onTrackerError(Torrent torrent, URI tracker, Throwable cause) {
+		for (ScrapeListener listener : listeners) {
+			listener.onTrackerError(torrent, tracker, cause);
+		}
+	}
+
+	@Override
+	public void onError(Torrent torrent, Throwable cause) {
+		for (ScrapeListener listener : listeners) {
+			listener.onError(torrent, cause);
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package com.solt.tscraper.tracker.http;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.solt.tscraper.tracker.ScrapeException;
+
+/**
+ * Streaming decoder of <code>gzip</code> and <code>deflate</code> encoded
+ * HTTP bodies.
+ *
+ * <p>
+ * Compressed bytes are handed over as they arrive and inflated on demand.
+ * The gzip header and trailer are parsed incrementally, and the trailer's
+ * CRC and size are checked. A <code>deflate</code> body may come with or
+ * without its zlib wrapper, as servers disagree on the format. The
+ * {@link Inflater}s are kept across responses and must be released with
+ * {@link #end()}.
+ * </p>
+ */
+class HTTPContentDecoder {
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int GZIP_TRAILER_LENGTH = 8;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private enum State {
+		HEADER,
+		DATA,
+		TRAILER,
+		DONE
+	}
+
+	private Inflater zlibInflater;
+	private Inflater rawInflater;
+	private Inflater inflater;
+	private final CRC32 crc;
+	private boolean gzip;
+	private State state;
+	private long size;
+	private byte[] input;
+	private int inputOffset;
+	private int inputLength;
+
+	HTTPContentDecoder() {
+		this.crc = new CRC32();
+		this.input = new byte[1024];
+	}
+
+	/**
+	 * Returns <code>true</code> if the content coding can be decoded.
+	 */
+	static boolean supports(String encoding) {
+		String coding = encoding.trim().toLowerCase(Locale.ROOT);
+		return coding.equals("gzip") || coding.equals("x-gzip")
+				|| coding.equals("deflate");
+	}
+
+	/**
+	 * Prepares for a new body in the given content coding.
+	 */
+	void start(String encoding) {
+		String coding = encoding.trim().toLowerCase(Locale.ROOT);
+		gzip = !coding.equals("deflate");
+		state = State.HEADER;
+		inflater = null;
+		size = 0;
+		crc.reset();
+		inputOffset = 0;
+		inputLength = 0;
+	}
+
+	/**
+	 * Takes <code>count</code> compressed bytes from the buffer.
+	 */
+	void setInput(ByteBuffer data, int count) {
+		if (inputOffset == inputLength) {
+			inputOffset = 0;
+			inputLength = 0;
+		}
+		if (inputLength + count > input.length) {
+			byte[] larger = new byte[Math.max(input.length * 2, inputLength + count)];
+			System.arraycopy(input, 0, larger, 0, inputLength);
+			input = larger;
+		}
+		data.get(input, inputLength, count);
+		inputLength += count;
+	}
+
+	/**
+	 * Inflates into the given array.
+	 *
+	 * @return The number of bytes inflated, 0 once all input is consumed.
+	 * @throws ScrapeException If the body is corrupt.
+	 */
+	int inflate(byte[] out, int offset, int length) {
+		while (true) {
+			switch (state) {
+			case HEADER:
+				if (!(gzip ? readGzipHeader() : sniffDeflate())) {
+					return 0;
+				}
+				state = State.DATA;
+				break;
+			case DATA:
+				if (inflater.finished()) {
+					// Give back what follows the compressed stream.
+					inputOffset = inputLength - inflater.getRemaining();
+					state = gzip ? State.TRAILER : State.DONE;
+					break;
+				}
+				if (inflater.needsInput()) {
+					if (inputOffset == inputLength) {
+						return 0;
+					}
+					// The inflater reads straight from our array, which is
+					// only refilled once it needs input again.
+					inflater.setInput(input, inputOffset, inputLength - inputOffset);
+					inputOffset = inputLength;
+				}
+				int inflated;
+				try {
+					inflated = inflater.inflate(out, offset, length);
+				} catch (DataFormatException e) {
+					throw new ScrapeException("Corrupt compressed HTTP response", e);
+				}
+				if (inflated > 0) {
+					if (gzip) {
+						crc.update(out, offset, inflated);
+					}
+					size += inflated;
+					return inflated;
+				}
+				if (inflater.needsDictionary()) {
+					throw new ScrapeException("Compressed HTTP response needs a dictionary");
+				} else if (!inflater.finished() && !inflater.needsInput()) {
+					// No room left in the output.
+					return 0;
+				}
+				break;
+			case TRAILER:
+				if (inputLength - inputOffset < GZIP_TRAILER_LENGTH) {
+					return 0;
+				}
+				long expectedCrc = readInt(inputOffset) & 0xFFFFFFFFL;
+				long expectedSize = readInt(inputOffset + 4) & 0xFFFFFFFFL;
+				inputOffset += GZIP_TRAILER_LENGTH;
+				if (expectedCrc != crc.getValue() || expectedSize != (size & 0xFFFFFFFFL)) {
+					throw new ScrapeException("Corrupt gzip HTTP response");
+				}
+				state = State.DONE;
+				break;
+			case DONE:
+				// Ignore anything after the end of the stream.
+				inputOffset = inputLength;
+				return 0;
+			default:
+				throw new IllegalStateException("Invalid decoder state " + state);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the whole compressed body was received.
+	 *
+	 * @throws ScrapeException If it was cut short.
+	 */
+	void finish() {
+		if (state != State.DONE) {
+			throw new ScrapeException("Truncated compressed HTTP response");
+		}
+	}
+
+	/**
+	 * Releases the native resources of the inflaters.
+	 */
+	void end() {
+		if (zlibInflater != null) {
+			zlibInflater.end();
+		}
+		if (rawInflater != null) {
+			rawInflater.end();
+		}
+	}
+
+	/**
+	 * Chooses between a zlib wrapped and a raw deflate stream from its first
+	 * two bytes.
+	 */
+	private boolean sniffDeflate() {
+		if (inputLength - inputOffset < 2) {
+			return false;
+		}
+		int cmf = input[inputOffset] & 0xFF;
+		int flg = input[inputOffset + 1] & 0xFF;
+		boolean zlib = (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+		inflater = zlib ? zlibInflater() : rawInflater();
+		return true;
+	}
+
+	/**
+	 * Skips the gzip header once it is fully buffered.
+	 */
+	private boolean readGzipHeader() {
+		int available = inputLength - inputOffset;
+		if (available < 10) {
+			return false;
+		}
+		if ((readShort(inputOffset) & 0xFFFF) != GZIP_MAGIC || input[inputOffset + 2] != 8) {
+			throw new ScrapeException("Not a gzip HTTP response");
+		}
+		int flags = input[inputOffset + 3] & 0xFF;
+		int length = 10;
+		if ((flags & FEXTRA) != 0) {
+			if (available < length + 2) {
+				return false;
+			}
+			length += 2 + (readShort(inputOffset + length) & 0xFFFF);
+		}
+		if ((flags & FNAME) != 0) {
+			length = skipZeroTerminated(length);
+		}
+		if ((flags & FCOMMENT) != 0 && length >= 0) {
+			length = skipZeroTerminated(length);
+		}
+		if ((flags & FHCRC) != 0 && length >= 0) {
+			length += 2;
+		}
+		if (length < 0 || length > available) {
+			return false;
+		}
+		inputOffset += length;
+		inflater = rawInflater();
+		return true;
+	}
+
+	/**
+	 * Returns the header length past the zero byte found from the given
+	 * position, or -1 if it is not buffered yet.
+	 */
+	private int skipZeroTerminated(int from) {
+		for (int i = inputOffset + from; i < inputLength; ++i) {
+			if (input[i] == 0) {
+				return i + 1 - inputOffset;
+			}
+		}
+		return -1;
+	}
+
+	private int readShort(int index) {
+		return (input[index] & 0xFF) | (input[index + 1] & 0xFF) << 8;
+	}
+
+	private int readInt(int index) {
+		return readShort(index) | readShort(index + 2) << 16;
+	}
+
+	private Inflater zlibInflater() {
+		if (zlibInflater == null) {
+			zlibInflater = new Inflater();
+		} else {
+			zlibInflater.reset();
+		}
+		return zlibInflater;
+	}
+
+	private Inflater rawInflater() {
+		if (rawInflater == null) {
+			rawInflater = new Inflater(true);
+		} else {
+			rawInflater.reset();
+		}
+		return rawInflater;
+	}
+}
@@ -0,0 +1,468 @@
+package com.solt.tscraper.tracker.http;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.solt.tscraper.tracker.ScrapeException;
+
+/**
+ * Resumable parser of HTTP/1.x responses for non-blocking clients.
+ *
+ * <p>
+ * Bytes are fed as they arrive, in chunks of any size; the parser keeps its
+ * state between calls and reports when the response is complete. The body
+ * may be framed by <code>Content-Length</code>, by chunked transfer encoding
+ * or, failing both, by the end of the stream. Interim 1xx responses are
+ * skipped.
+ * </p>
+ *
+ * <p>
+ * Bodies in the <code>gzip</code> or <code>deflate</code> content coding are
+ * inflated as they arrive, so {@link #getBody()} always returns the decoded
+ * bytes. The parser holds native inflater memory once it decoded a
+ * compressed body; {@link #release()} frees it.
+ * </p>
+ *
+ * <p>
+ * With a {@link BodyConsumer}, the decoded body is handed over as it
+ * arrives instead of being buffered, and is not bounded in size.
+ * </p>
+ *
+ * <p>
+ * A parser can be {@link #reset()} to read the next response of a
+ * keep-alive connection.
+ * </p>
+ */
+public class HTTPResponseParser {
+
+	/** Default cap on the size of the status line plus headers, in bytes. */
+	public static final int DEFAULT_MAX_HEADER_LENGTH = 64 * 1024;
+
+	/** Default cap on the size of a decoded body, in bytes. */
+	public static final int DEFAULT_MAX_BODY_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * Receives the decoded body of a response as it arrives.
+	 */
+	public interface BodyConsumer {
+
+		/**
+		 * Consumes the next bytes of the body, between the buffer's position
+		 * and limit. The buffer is only valid during the call.
+		 *
+		 * @throws ScrapeException If the body is not what was expected.
+		 */
+		void consume(ByteBuffer data);
+	}
+
+	private enum State {
+		STATUS_LINE,
+		HEADERS,
+		BODY,
+		BODY_UNTIL_EOF,
+		CHUNK_SIZE,
+		CHUNK_DATA,
+		CHUNK_DATA_END,
+		TRAILERS,
+		DONE
+	}
+
+	private final int maxHeaderLength;
+	private final int maxBodyLength;
+	private final StringBuilder line;
+	private final Map<String, String> headers;
+	private State state;
+	private int headerLength;
+	private String version;
+	private int statusCode;
+	private String reasonPhrase;
+	private long contentLength;
+	private boolean chunked;
+	private long remaining;
+	private byte[] body;
+	private int bodyLength;
+	private HTTPContentDecoder decoder;
+	private boolean decoding;
+	private boolean encodedBytes;
+	private BodyConsumer consumer;
+
+	public HTTPResponseParser() {
+		this(DEFAULT_MAX_HEADER_LENGTH, DEFAULT_MAX_BODY_LENGTH);
+	}
+
+	public HTTPResponseParser(int maxHeaderLength, int maxBodyLength) {
+		this.maxHeaderLength = maxHeaderLength;
+		this.maxBodyLength = maxBodyLength;
+		this.line = new StringBuilder();
+		this.headers = new HashMap<>();
+		this.body = new byte[1024];
+		reset();
+	}
+
+	/**
+	 * Forgets the current response to parse a new one.
+	 */
+	public void reset() {
+		state = State.STATUS_LINE;
+		line.setLength(0);
+		headers.clear();
+		headerLength = 0;
+		version = null;
+		statusCode = 0;
+		reasonPhrase = null;
+		contentLength = -1;
+		chunked = false;
+		remaining = 0;
+		bodyLength = 0;
+		decoding = false;
+		encodedBytes = false;
+	}
+
+	/**
+	 * Frees the inflaters used for compressed bodies.
+	 */
+	public void release() {
+		if (decoder != null) {
+			decoder.end();
+			decoder = null;
+		}
+	}
+
+	/**
+	 * Hands the body of the following responses to the consumer, or buffers
+	 * it again if <code>null</code>.
+	 */
+	public void setBodyConsumer(BodyConsumer consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Consumes bytes from the buffer until it is empty or the response is
+	 * complete. Bytes following a complete response are left in the buffer.
+	 *
+	 * @return <code>true</code> once the response is complete.
+	 * @throws ScrapeException If the response is malformed or too large.
+	 */
+	public boolean feed(ByteBuffer data) {
+		while (state != State.DONE && data.hasRemaining()) {
+			switch (state) {
+			case STATUS_LINE:
+			case HEADERS:
+			case CHUNK_SIZE:
+			case TRAILERS:
+				if (readLine(data)) {
+					String text = line.toString();
+					line.setLength(0);
+					onLine(text);
+				}
+				break;
+			case BODY:
+			case CHUNK_DATA:
+				int count = (int) Math.min(remaining, data.remaining());
+				appendBody(data, count);
+				remaining -= count;
+				if (remaining == 0) {
+					if (state == State.BODY) {
+						done();
+					} else {
+						state = State.CHUNK_DATA_END;
+					}
+				}
+				break;
+			case CHUNK_DATA_END:
+				if (readLine(data)) {
+					if (line.length() != 0) {
+						throw new ScrapeException("Malformed chunk in HTTP response");
+					}
+					line.setLength(0);
+					state = State.CHUNK_SIZE;
+				}
+				break;
+			case BODY_UNTIL_EOF:
+				appendBody(data, data.remaining());
+				break;
+			default:
+				throw new IllegalStateException("Invalid parser state " + state);
+			}
+		}
+		return state == State.DONE;
+	}
+
+	/**
+	 * Signals that the connection was closed.
+	 *
+	 * @throws EOFException If the response was cut short.
+	 */
+	public void endOfStream() throws EOFException {
+		if (state == State.BODY_UNTIL_EOF) {
+			done();
+		} else if (state != State.DONE) {
+			throw new EOFException("Connection closed before the end of the HTTP response");
+		}
+	}
+
+	public boolean isComplete() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * Returns <code>true</code> once the headers are parsed.
+	 */
+	public boolean hasHeaders() {
+		return state != State.STATUS_LINE && state != State.HEADERS;
+	}
+
+	/**
+	 * Returns <code>true</code> if any byte of the response was consumed.
+	 */
+	public boolean isStarted() {
+		return state != State.STATUS_LINE || headerLength > 0;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public String getReasonPhrase() {
+		return reasonPhrase;
+	}
+
+	/**
+	 * Returns the value of the header, matched case-insensitively, or
+	 * <code>null</code>. Repeated headers are joined with commas.
+	 */
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Returns the declared body length, or -1 if not framed by
+	 * <code>Content-Length</code>.
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	public boolean isChunked() {
+		return chunked;
+	}
+
+	/**
+	 * Returns <code>true</code> if the connection may carry another request
+	 * after this response.
+	 */
+	public boolean isKeepAlive() {
+		if (!hasHeaders() || !(chunked || contentLength >= 0 || !hasBody())) {
+			return false;
+		}
+		String connection = getHeader("Connection");
+		if ("HTTP/1.0".equals(version)) {
+			return connection != null && connection.equalsIgnoreCase("keep-alive");
+		}
+		return connection == null || !connection.equalsIgnoreCase("close");
+	}
+
+	/**
+	 * Returns the decoded body received so far, empty if it went to a
+	 * {@link BodyConsumer}. The buffer shares the parser's storage and is
+	 * only valid until the next call.
+	 */
+	public ByteBuffer getBody() {
+		return ByteBuffer.wrap(body, 0, bodyLength);
+	}
+
+	private boolean readLine(ByteBuffer data) {
+		while (data.hasRemaining()) {
+			boolean head = state == State.STATUS_LINE || state == State.HEADERS;
+			if (head ? ++headerLength > maxHeaderLength : line.length() >= maxHeaderLength) {
+				throw new ScrapeException("HTTP response header too large");
+			}
+			char c = (char) (data.get() & 0xFF);
+			if (c == '\n') {
+				int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(length - 1);
+				}
+				return true;
+			}
+			line.append(c);
+		}
+		return false;
+	}
+
+	private void onLine(String text) {
+		switch (state) {
+		case STATUS_LINE:
+			if (text.isEmpty()) {
+				// Tolerate stray line breaks before the status line.
+				return;
+			}
+			parseStatusLine(text);
+			state = State.HEADERS;
+			break;
+		case HEADERS:
+			if (text.isEmpty()) {
+				headersDone();
+			} else {
+				parseHeader(text);
+			}
+			break;
+		case CHUNK_SIZE:
+			int extension = text.indexOf(';');
+			String size = (extension < 0 ? text : text.substring(0, extension)).trim();
+			try {
+				remaining = Long.parseLong(size, 16);
+			} catch (NumberFormatException e) {
+				throw new ScrapeException("Invalid chunk size in HTTP response: " + size);
+			}
+			if (remaining < 0) {
+				throw new ScrapeException("Invalid chunk size in HTTP response: " + size);
+			}
+			state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+			break;
+		case TRAILERS:
+			if (text.isEmpty()) {
+				done();
+			}
+			break;
+		default:
+			throw new IllegalStateException("Invalid parser state " + state);
+		}
+	}
+
+	private void parseStatusLine(String text) {
+		// "HTTP/1.1 200 OK", the reason phrase being optional.
+		String[] parts = text.split(" ", 3);
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+			throw new ScrapeException("Malformed HTTP status line: " + text);
+		}
+		try {
+			statusCode = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new ScrapeException("Malformed HTTP status line: " + text);
+		}
+		version = parts[0];
+		reasonPhrase = parts.length > 2 ? parts[2] : "";
+	}
+
+	private void parseHeader(String text) {
+		int colon = text.indexOf(':');
+		if (colon <= 0) {
+			throw new ScrapeException("Malformed HTTP header: " + text);
+		}
+		String name = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+		String value = text.substring(colon + 1).trim();
+		String previous = headers.get(name);
+		headers.put(name, previous == null ? value : previous + ", " + value);
+	}
+
+	private void headersDone() {
+		if (statusCode >= 100 && statusCode < 200) {
+			// Interim response, the real one follows.
+			reset();
+			return;
+		}
+		String transferEncoding = getHeader("Transfer-Encoding");
+		String length = getHeader("Content-Length");
+		String contentEncoding = getHeader("Content-Encoding");
+		if (contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity")) {
+			if (!HTTPContentDecoder.supports(contentEncoding)) {
+				throw new ScrapeException("Unsupported Content-Encoding in HTTP response: "
+						+ contentEncoding);
+			}
+			if (decoder == null) {
+				decoder = new HTTPContentDecoder();
+			}
+			decoder.start(contentEncoding);
+			decoding = true;
+		}
+		if (transferEncoding != null
+				&& transferEncoding.toLowerCase(Locale.ROOT).endsWith("chunked")) {
+			chunked = true;
+			state = State.CHUNK_SIZE;
+		} else if (!hasBody()) {
+			done();
+		} else if (length != null) {
+			try {
+				contentLength = Long.parseLong(length);
+			} catch (NumberFormatException e) {
+				throw new ScrapeException("Invalid Content-Length in HTTP response: " + length);
+			}
+			if (contentLength < 0 || (consumer == null && contentLength > maxBodyLength)) {
+				throw new ScrapeException("Invalid Content-Length in HTTP response: " + length);
+			}
+			remaining = contentLength;
+			if (remaining == 0) {
+				done();
+			} else {
+				state = State.BODY;
+			}
+		} else {
+			state = State.BODY_UNTIL_EOF;
+		}
+	}
+
+	private boolean hasBody() {
+		return statusCode != 204 && statusCode != 304;
+	}
+
+	private void done() {
+		if (decoding && encodedBytes) {
+			decoder.finish();
+		}
+		state = State.DONE;
+	}
+
+	private void appendBody(ByteBuffer data, int count) {
+		if (!decoding) {
+			if (consumer != null) {
+				ByteBuffer view = data.duplicate();
+				view.limit(view.position() + count);
+				data.position(view.limit());
+				consumer.consume(view);
+				return;
+			}
+			ensureCapacity(bodyLength + count);
+			data.get(body, bodyLength, count);
+			bodyLength += count;
+			return;
+		}
+		if (count == 0) {
+			return;
+		}
+		encodedBytes = true;
+		decoder.setInput(data, count);
+		while (true) {
+			if (bodyLength == body.length) {
+				ensureCapacity(bodyLength + 1);
+			}
+			int inflated = decoder.inflate(body, bodyLength, body.length - bodyLength);
+			if (inflated == 0) {
+				return;
+			}
+			bodyLength += inflated;
+			if (consumer != null) {
+				consumer.consume(ByteBuffer.wrap(body, 0, bodyLength));
+				bodyLength = 0;
+			}
+		}
+	}
+
+	private void ensureCapacity(int length) {
+		if (length > maxBodyLength) {
+			throw new ScrapeException("HTTP response body too large");
+		}
+		if (length > body.length) {
+			int capacity = body.length;
+			while (capacity < length) {
+				capacity <<= 1;
+			}
+			byte[] larger = new byte[Math.min(capacity, maxBodyLength)];
+			System.arraycopy(body, 0, larger, 0, bodyLength);
+			body = larger;
+		}
+	}
+}
@@ -9,34 +9,153 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 
 import com.solt.tscraper.bcodec.BDecoder;
 import com.solt.tscraper.bcodec.BEValue;
+import com.solt.tscraper.bcodec.BEventParser;
 import com.solt.tscraper.common.Torrent;
 import com.solt.tscraper.common.TorrentState;
 import com.solt.tscraper.tracker.ScrapeException;
 import com.solt.tscraper.tracker.TrackerScraper;
+import com.solt.tscraper.util.BufferPool;
+import com.solt.tscraper.util.Pair;
 
 public class HTTPTrackerScraper extends TrackerScraper {
+	/**
+	 * Longest scrape url we build. Most trackers and proxies accept 8 kB
+	 * request lines, which fits well over a hundred info hashes.
+	 */
+	public static final int DEFAULT_MAX_URL_LENGTH = 8192;
+
 	private URL scrapeUrl;
 	public HTTPTrackerScraper(Torrent torrent, URI announce) {
 		super(torrent, announce);
 	}
 	
 	public static URL buildScrapeRequestUrl(URI announce, Torrent torrent) throws MalformedURLException, UnsupportedEncodingException {
+		return buildScrapeRequestUrl(announce, torrent.getInfoHash());
+	}
+
+	public static URL buildScrapeRequestUrl(URI announce, byte[] infoHash) throws MalformedURLException, UnsupportedEncodingException {
 		String base = getScrapeUrl(announce).toString();
 		StringBuilder url = new StringBuilder(base);
 		url.append(base.contains("?") ? "&" : "?")
 			.append("info_hash=")
-			.append(URLEncoder.encode(
-				new String(torrent.getInfoHash(), Torrent.BYTE_ENCODING),
-				Torrent.BYTE_ENCODING));
+			.append(encodeInfoHash(infoHash));
 		return new URL(url.toString());
 	}
 
+	/**
+	 * Builds scrape urls carrying one repeated <code>info_hash</code>
+	 * parameter per given hash, splitting them over as many urls as needed
+	 * to keep each one under {@link #DEFAULT_MAX_URL_LENGTH}.
+	 *
+	 * @return Each url with the hashes it carries, in the given order.
+	 */
+	public static List<Pair<URL, List<byte[]>>> buildScrapeRequestUrls(URI announce,
+			List<byte[]> infoHashes) throws MalformedURLException, UnsupportedEncodingException {
+		return buildScrapeRequestUrls(announce, infoHashes, DEFAULT_MAX_URL_LENGTH);
+	}
+
+	public static List<Pair<URL, List<byte[]>>> buildScrapeRequestUrls(URI announce,
+			List<byte[]> infoHashes, int maxUrlLength) throws MalformedURLException, UnsupportedEncodingException {
+		String base = getScrapeUrl(announce).toString();
+		char first = base.contains("?") ? '&' : '?';
+		char separator = first;
+		List<Pair<URL, List<byte[]>>> urls = new ArrayList<>();
+		StringBuilder url = new StringBuilder(base);
+		List<byte[]> carried = new ArrayList<>();
+		for (byte[] infoHash : infoHashes) {
+			String param = "info_hash=" + encodeInfoHash(infoHash);
+			if (!carried.isEmpty() && url.length() + 1 + param.length() > maxUrlLength) {
+				urls.add(Pair.of(new URL(url.toString()), carried));
+				url.setLength(base.length());
+				separator = first;
+				carried = new ArrayList<>();
+			}
+			url.append(separator).append(param);
+			separator = '&';
+			carried.add(infoHash);
+		}
+		if (!carried.isEmpty()) {
+			urls.add(Pair.of(new URL(url.toString()), carried));
+		}
+		return urls;
+	}
+
+	private static String encodeInfoHash(byte[] infoHash) throws UnsupportedEncodingException {
+		return URLEncoder.encode(new String(infoHash, Torrent.BYTE_ENCODING),
+				Torrent.BYTE_ENCODING);
+	}
+
+	/**
+	 * Builds the raw HTTP/1.1 GET request for the given scrape url, for use
+	 * by non-blocking clients.
+	 */
+	public static ByteBuffer createScrapeRequest(URL scrapeUrl) {
+		return createScrapeRequest(scrapeUrl, false, false);
+	}
+
+	/**
+	 * Builds the raw HTTP/1.1 GET request for the given scrape url.
+	 *
+	 * @param keepAlive Whether the connection should stay open for further
+	 * requests.
+	 * @param compressed Whether to accept a gzip or deflate encoded response,
+	 * as decoded by {@link HTTPResponseParser}.
+	 */
+	public static ByteBuffer createScrapeRequest(URL scrapeUrl, boolean keepAlive,
+			boolean compressed) {
+		return ByteBuffer.wrap(buildScrapeRequest(scrapeUrl, keepAlive, compressed)
+				.toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Same as {@link #createScrapeRequest(URL, boolean, boolean)}, in a
+	 * buffer borrowed from the pool.
+	 */
+	public static ByteBuffer createScrapeRequest(URL scrapeUrl, boolean keepAlive,
+			boolean compressed, BufferPool pool) {
+		StringBuilder request = buildScrapeRequest(scrapeUrl, keepAlive, compressed);
+		ByteBuffer buffer = pool.acquire(request.length());
+		for (int i = 0; i < request.length(); ++i) {
+			// ISO-8859-1, as the heap variant.
+			char c = request.charAt(i);
+			buffer.put(c <= 0xFF ? (byte) c : (byte) '?');
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static StringBuilder buildScrapeRequest(URL scrapeUrl, boolean keepAlive,
+			boolean compressed) {
+		StringBuilder request = new StringBuilder();
+		request.append("GET ").append(scrapeUrl.getPath());
+		if (scrapeUrl.getQuery() != null) {
+			request.append('?').append(scrapeUrl.getQuery());
+		}
+		request.append(" HTTP/1.1\r\n")
+			.append("Host: ").append(scrapeUrl.getHost());
+		if (scrapeUrl.getPort() != -1) {
+			request.append(':').append(scrapeUrl.getPort());
+		}
+		request.append("\r\n")
+			.append("Accept: */*\r\n");
+		if (compressed) {
+			request.append("Accept-Encoding: gzip, deflate\r\n");
+		}
+		request.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n")
+			.append("\r\n");
+		return request;
+	}
+
 	@Override
 	public TorrentState scrape() {
 		HttpURLConnection conn = null;
@@ -100,6 +219,56 @@ public class HTTPTrackerScraper extends TrackerScraper {
 		return new TorrentState(compelete, downloaded, incomplete);
 	}
 	
+	/**
+	 * Decodes a scrape response covering any number of torrents, entry by
+	 * entry through a {@link ScrapeResponseHandler}.
+	 *
+	 * @return The state of every torrent in the <code>files</code>
+	 * dictionary, keyed by its 20-byte info hash.
+	 */
+	public static Map<ByteBuffer, TorrentState> parseScrapeResponses(ByteBuffer data) throws IOException {
+		ScrapeResponseHandler handler = new ScrapeResponseHandler();
+		BEventParser parser = new BEventParser(handler);
+		parser.feed(data.duplicate());
+		parser.endOfStream();
+		return handler.getStates();
+	}
+
+	public static Map<ByteBuffer, TorrentState> parseScrapeResponses(InputStream in) throws IOException {
+		return parseScrapeResponses(new BDecoder(in, Torrent.BYTE_ENCODING).bdecode());
+	}
+
+	private static Map<ByteBuffer, TorrentState> parseScrapeResponses(BEValue decoded) throws IOException {
+		if (decoded == null) {
+			throw new ScrapeException(
+				"Could not decode tracker message (not B-encoded?)!");
+		}
+		Map<String, BEValue> params = decoded.getMap();
+		BEValue failure = params.get("failure reason");
+		if (failure != null) {
+			throw new ScrapeException("failure reason from tracker: " + failure.getString());
+		}
+		BEValue files = params.get("files");
+		if (files == null) {
+			throw new ScrapeException("No files dictionary in scrape response!");
+		}
+		Map<ByteBuffer, TorrentState> states = new HashMap<>();
+		for (Map.Entry<String, BEValue> file : files.getMap().entrySet()) {
+			Map<String, BEValue> infos = file.getValue().getMap();
+			int complete = getCount(infos, "complete");
+			int downloaded = getCount(infos, "downloaded");
+			int incomplete = getCount(infos, "incomplete");
+			states.put(ByteBuffer.wrap(file.getKey().getBytes(Torrent.BYTE_ENCODING)),
+					new TorrentState(complete, downloaded, incomplete));
+		}
+		return states;
+	}
+
+	private static int getCount(Map<String, BEValue> infos, String key) throws IOException {
+		BEValue value = infos.get(key);
+		return value == null ? 0 : value.getInt();
+	}
+	
 	   /**
      * Retrieves the scrape url for the tracker.
      * 
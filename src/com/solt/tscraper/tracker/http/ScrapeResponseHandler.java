@@ -0,0 +1,167 @@
+package com.solt.tscraper.tracker.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.solt.tscraper.bcodec.BEventHandler;
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.tracker.ScrapeException;
+
+/**
+ * Collects the torrent states of a scrape response from the events of a
+ * {@link com.solt.tscraper.bcodec.BEventParser}.
+ *
+ * <p>
+ * Each entry of the <code>files</code> dictionary is turned into a
+ * {@link TorrentState} as soon as it is read, so the response is never held
+ * as a whole. When the wanted info hashes are given, the entries of other
+ * torrents are skipped: a tracker answering with a full scrape costs no more
+ * memory than one answering for the asked torrents only.
+ * </p>
+ */
+public class ScrapeResponseHandler implements BEventHandler {
+	private static final ByteBuffer FILES = key("files");
+	private static final ByteBuffer FAILURE_REASON = key("failure reason");
+	private static final ByteBuffer COMPLETE = key("complete");
+	private static final ByteBuffer DOWNLOADED = key("downloaded");
+	private static final ByteBuffer INCOMPLETE = key("incomplete");
+
+	// Depths of the response, the files dictionary and its entries.
+	private static final int RESPONSE = 1;
+	private static final int FILE_LIST = 2;
+	private static final int FILE = 3;
+
+	// The keys that matter, resolved when read: their bytes do not outlive
+	// the event.
+	private static final int OTHER = 0;
+	private static final int FILES_KEY = 1;
+	private static final int FAILURE_REASON_KEY = 2;
+	private static final int COMPLETE_KEY = 3;
+	private static final int DOWNLOADED_KEY = 4;
+	private static final int INCOMPLETE_KEY = 5;
+
+	private final Set<ByteBuffer> infoHashes;
+	private final Map<ByteBuffer, TorrentState> states;
+	private int depth;
+	private int key;
+	private boolean files;
+	private boolean inFiles;
+	private ByteBuffer infoHash;
+	private boolean inFile;
+	private int complete;
+	private int downloaded;
+	private int incomplete;
+
+	public ScrapeResponseHandler() {
+		this(null);
+	}
+
+	/**
+	 * @param infoHashes The info hashes whose state is kept, all if
+	 * <code>null</code>.
+	 */
+	public ScrapeResponseHandler(Set<ByteBuffer> infoHashes) {
+		this.infoHashes = infoHashes;
+		this.states = new HashMap<>();
+	}
+
+	/**
+	 * Returns the state of every torrent read, keyed by its 20-byte info
+	 * hash.
+	 *
+	 * @throws ScrapeException If the response had no <code>files</code>
+	 * dictionary.
+	 */
+	public Map<ByteBuffer, TorrentState> getStates() {
+		if (!files) {
+			throw new ScrapeException("No files dictionary in scrape response!");
+		}
+		return states;
+	}
+
+	@Override
+	public void dictStart() {
+		++depth;
+		if (depth == FILE_LIST && key == FILES_KEY) {
+			files = true;
+			inFiles = true;
+		} else if (depth == FILE && inFiles && infoHash != null) {
+			inFile = true;
+			complete = 0;
+			downloaded = 0;
+			incomplete = 0;
+		}
+	}
+
+	@Override
+	public void listStart() {
+		++depth;
+	}
+
+	@Override
+	public void key(ByteBuffer key) {
+		if (depth == FILE_LIST && inFiles) {
+			infoHash = infoHashes == null || infoHashes.contains(key) ? copy(key) : null;
+		} else if (depth == RESPONSE) {
+			this.key = FILES.equals(key) ? FILES_KEY
+					: FAILURE_REASON.equals(key) ? FAILURE_REASON_KEY : OTHER;
+		} else if (depth == FILE) {
+			this.key = COMPLETE.equals(key) ? COMPLETE_KEY
+					: DOWNLOADED.equals(key) ? DOWNLOADED_KEY
+					: INCOMPLETE.equals(key) ? INCOMPLETE_KEY : OTHER;
+		}
+	}
+
+	@Override
+	public void bytes(ByteBuffer value) {
+		if (depth == RESPONSE && key == FAILURE_REASON_KEY) {
+			throw new ScrapeException("failure reason from tracker: "
+					+ StandardCharsets.UTF_8.decode(value));
+		}
+	}
+
+	@Override
+	public void integer(long value) {
+		if (depth != FILE || !inFile) {
+			return;
+		}
+		switch (key) {
+		case COMPLETE_KEY:
+			complete = (int) value;
+			break;
+		case DOWNLOADED_KEY:
+			downloaded = (int) value;
+			break;
+		case INCOMPLETE_KEY:
+			incomplete = (int) value;
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void end() {
+		if (depth == FILE && inFile) {
+			states.put(infoHash, new TorrentState(complete, downloaded, incomplete));
+			inFile = false;
+			infoHash = null;
+		} else if (depth == FILE_LIST && inFiles) {
+			inFiles = false;
+		}
+		--depth;
+	}
+
+	private static ByteBuffer copy(ByteBuffer key) {
+		byte[] bytes = new byte[key.remaining()];
+		key.duplicate().get(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	private static ByteBuffer key(String name) {
+		return ByteBuffer.wrap(name.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+	}
+}
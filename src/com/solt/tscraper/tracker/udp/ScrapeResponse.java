@@ -4,42 +4,78 @@ import java.nio.ByteBuffer;
 
 import com.solt.tscraper.tracker.udp.TrackerResponse.InvalidResponseException;
 
+/**
+ * A UDP scrape response, carrying one 12-byte result block per info hash
+ * of the request, in request order.
+ */
 public class ScrapeResponse extends TrackerResponse {
-	private int complete;
-	private int downloaded;
-	private int incomplete;
+	private static final int ENTRY_SIZE = 12;
+
+	private int[] complete;
+	private int[] downloaded;
+	private int[] incomplete;
 	
 	public ScrapeResponse(int actionId, int transactionId, int complete, int downloaded, int incomplete) {
+		this(actionId, transactionId, new int[] { complete },
+				new int[] { downloaded }, new int[] { incomplete });
+	}
+
+	public ScrapeResponse(int actionId, int transactionId, int[] complete, int[] downloaded, int[] incomplete) {
 		super(actionId, transactionId);
 		this.complete = complete;
 		this.downloaded = downloaded;
 		this.incomplete = incomplete;
 	}
 
+	/**
+	 * Returns the number of info hashes answered by this response.
+	 */
+	public int size() {
+		return complete.length;
+	}
+
 	public int getComplete() {
-		return complete;
+		return complete[0];
 	}
 
 	public int getDownloaded() {
-		return downloaded;
+		return downloaded[0];
 	}
 
 	public int getIncomplete() {
-		return incomplete;
+		return incomplete[0];
+	}
+
+	public int getComplete(int index) {
+		return complete[index];
+	}
+
+	public int getDownloaded(int index) {
+		return downloaded[index];
+	}
+
+	public int getIncomplete(int index) {
+		return incomplete[index];
 	}
 	
 	public static ScrapeResponse parse(ByteBuffer data) throws InvalidResponseException {
-		if (data.remaining() != 20) {
+		int entries = (data.remaining() - 8) / ENTRY_SIZE;
+		if (entries < 1 || data.remaining() != 8 + entries * ENTRY_SIZE) {
 			throw new InvalidResponseException("Invalid packet size!");
 		}
 		int actionId = data.getInt();
 		if (actionId != Action.SCRAPE) {
-			throw new InvalidResponseException("Invalid action code for connection response!");
+			throw new InvalidResponseException("Invalid action code for scrape response!");
 		}
 		int transactionId = data.getInt();
-		int complete = data.getInt();
-		int downloaded = data.getInt();
-		int incomplete = data.getInt();
+		int[] complete = new int[entries];
+		int[] downloaded = new int[entries];
+		int[] incomplete = new int[entries];
+		for (int i = 0; i < entries; ++i) {
+			complete[i] = data.getInt();
+			downloaded[i] = data.getInt();
+			incomplete[i] = data.getInt();
+		}
 		return new ScrapeResponse(actionId, transactionId, complete, downloaded, incomplete);
 	}
 
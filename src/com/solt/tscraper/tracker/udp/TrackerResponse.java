@@ -2,7 +2,6 @@ package com.solt.tscraper.tracker.udp;
 
 import java.nio.ByteBuffer;
 
-import javax.activity.InvalidActivityException;
 
 public abstract class TrackerResponse {
 	private static final int UDP_MIN_RESPONSE_PACKET_SIZE = 8;
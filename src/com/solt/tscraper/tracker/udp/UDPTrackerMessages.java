@@ -0,0 +1,167 @@
+package com.solt.tscraper.tracker.udp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.solt.tscraper.tracker.udp.TrackerResponse.InvalidResponseException;
+
+/**
+ * Allocation-free encoding and decoding of BEP 15 tracker messages.
+ *
+ * <p>
+ * Requests are written in place into buffers supplied by the caller.
+ * Replies are read straight from the receive buffer with absolute gets and
+ * their fields are pushed into a {@link Handler} as primitives, so no
+ * {@link TrackerResponse} is created per datagram. Decoding leaves the
+ * buffer's position untouched.
+ * </p>
+ */
+public final class UDPTrackerMessages {
+
+	/** Size of a connect request and of a connect reply. */
+	public static final int CONNECT_LENGTH = 16;
+
+	/** Size of the header of every reply: action and transaction id. */
+	public static final int REPLY_HEADER_LENGTH = 8;
+
+	/** Size of the scrape block of one info hash in a reply. */
+	public static final int SCRAPE_ENTRY_LENGTH = 12;
+
+	/**
+	 * Receives the fields of decoded replies.
+	 */
+	public interface Handler {
+
+		void onConnect(int transactionId, long connectionId);
+
+		/**
+		 * Called with the header of a scrape reply, before its entries.
+		 *
+		 * @param count Number of entries that follow.
+		 * @return <code>false</code> to skip the entries.
+		 */
+		boolean onScrape(int transactionId, int count);
+
+		/**
+		 * Called for every entry of a scrape reply, in request order.
+		 */
+		void onScrapeEntry(int transactionId, int index, int complete,
+				int downloaded, int incomplete);
+
+		/**
+		 * Called with the message of an error reply. Errors are rare, the
+		 * message is decoded to a string.
+		 */
+		void onError(int transactionId, String message);
+	}
+
+	private UDPTrackerMessages() {
+	}
+
+	/**
+	 * Returns the action of the reply starting at the buffer's position.
+	 */
+	public static int getAction(ByteBuffer reply) {
+		return reply.getInt(reply.position());
+	}
+
+	/**
+	 * Returns the transaction id of the reply starting at the buffer's
+	 * position.
+	 */
+	public static int getTransactionId(ByteBuffer reply) {
+		return reply.getInt(reply.position() + 4);
+	}
+
+	/**
+	 * Decodes the reply between the buffer's position and limit into the
+	 * handler.
+	 *
+	 * @throws InvalidResponseException If the reply is malformed or of an
+	 * unknown action.
+	 */
+	public static void decode(ByteBuffer reply, Handler handler)
+			throws InvalidResponseException {
+		int offset = reply.position();
+		int length = reply.remaining();
+		if (length < REPLY_HEADER_LENGTH) {
+			throw new InvalidResponseException("Invalid packet size!");
+		}
+		int action = reply.getInt(offset);
+		int transactionId = reply.getInt(offset + 4);
+		switch (action) {
+		case Action.CONNECT:
+			if (length != CONNECT_LENGTH) {
+				throw new InvalidResponseException("Invalid packet size!");
+			}
+			handler.onConnect(transactionId, reply.getLong(offset + 8));
+			break;
+		case Action.SCRAPE:
+			int count = (length - REPLY_HEADER_LENGTH) / SCRAPE_ENTRY_LENGTH;
+			if (count < 1 || length != REPLY_HEADER_LENGTH + count * SCRAPE_ENTRY_LENGTH) {
+				throw new InvalidResponseException("Invalid packet size!");
+			}
+			if (!handler.onScrape(transactionId, count)) {
+				break;
+			}
+			int entry = offset + REPLY_HEADER_LENGTH;
+			for (int i = 0; i < count; ++i, entry += SCRAPE_ENTRY_LENGTH) {
+				handler.onScrapeEntry(transactionId, i, reply.getInt(entry),
+						reply.getInt(entry + 4), reply.getInt(entry + 8));
+			}
+			break;
+		case Action.ERROR:
+			byte[] message = new byte[length - REPLY_HEADER_LENGTH];
+			for (int i = 0; i < message.length; ++i) {
+				message[i] = reply.get(offset + REPLY_HEADER_LENGTH + i);
+			}
+			handler.onError(transactionId, new String(message, StandardCharsets.ISO_8859_1));
+			break;
+		default:
+			throw new InvalidResponseException("Unknown UDP tracker " +
+					"response message!");
+		}
+	}
+
+	/**
+	 * Returns the size of a scrape request for the given number of info
+	 * hashes.
+	 *
+	 * @throws IllegalArgumentException If the count is not between 1 and
+	 * {@link UDPTrackerScraper#MAX_SCRAPE_HASHES}.
+	 */
+	public static int scrapeLength(int infoHashes) {
+		if (infoHashes < 1 || infoHashes > UDPTrackerScraper.MAX_SCRAPE_HASHES) {
+			throw new IllegalArgumentException("Can only scrape 1 to "
+					+ UDPTrackerScraper.MAX_SCRAPE_HASHES + " info hashes at once");
+		}
+		return 16 + 20 * infoHashes;
+	}
+
+	/**
+	 * Writes a connect request at the buffer's position, which is advanced
+	 * past it.
+	 */
+	public static void encodeConnect(ByteBuffer dst, int transactionId) {
+		dst.putLong(UDPTrackerScraper.DEFAULT_CONNECTION_ID);
+		dst.putInt(Action.CONNECT);
+		dst.putInt(transactionId);
+	}
+
+	/**
+	 * Writes a scrape request for up to
+	 * {@link UDPTrackerScraper#MAX_SCRAPE_HASHES} info hashes at the buffer's
+	 * position, which is advanced past it.
+	 */
+	public static void encodeScrape(ByteBuffer dst, long connectionId,
+			int transactionId, List<byte[]> infoHashes) {
+		scrapeLength(infoHashes.size());
+		dst.putLong(connectionId);
+		dst.putInt(Action.SCRAPE);
+		dst.putInt(transactionId);
+		for (int i = 0; i < infoHashes.size(); ++i) {
+			dst.put(infoHashes.get(i));
+		}
+	}
+}
@@ -9,7 +9,9 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Random;
 
 import org.slf4j.Logger;
@@ -20,6 +22,7 @@ import com.solt.tscraper.common.TorrentState;
 import com.solt.tscraper.tracker.ScrapeException;
 import com.solt.tscraper.tracker.TrackerScraper;
 import com.solt.tscraper.tracker.udp.TrackerResponse.InvalidResponseException;
+import com.solt.tscraper.util.BufferPool;
 
 public class UDPTrackerScraper extends TrackerScraper {
 
@@ -40,8 +43,20 @@ public class UDPTrackerScraper extends TrackerScraper {
 	 */
 	public static final int UDP_PACKET_LENGTH = 512;
 
+	/**
+	 * Maximum number of info hashes in a single scrape request (BEP 15).
+	 */
+	public static final int MAX_SCRAPE_HASHES = 74;
+
+	/**
+	 * Size of the largest scrape response: 8 header bytes plus 12 bytes per
+	 * scraped info hash.
+	 */
+	public static final int MAX_SCRAPE_RESPONSE_LENGTH = 8 + 12 * MAX_SCRAPE_HASHES;
+
 	private final InetSocketAddress address;
 	private final Random random;
+	private final DatagramPacket received;
 
 	private DatagramSocket socket;
 	private Date connectionExpiration;
@@ -62,6 +77,9 @@ public class UDPTrackerScraper extends TrackerScraper {
 				announce.getPort());
 
 		this.random = new Random();
+		// Every reply is parsed before the next receive, one packet will do.
+		this.received = new DatagramPacket(new byte[UDP_PACKET_LENGTH],
+				UDP_PACKET_LENGTH);
 		this.stop = false;
 	}
 
@@ -70,20 +88,56 @@ public class UDPTrackerScraper extends TrackerScraper {
 	 * 32-bit integer action 0 // connect 12 32-bit integer transaction_id 16
 	 */
 	public static ByteBuffer createConnectRequest(int transactionId) {
-		ByteBuffer bBuffer = ByteBuffer.allocate(16);
-		bBuffer.putLong(DEFAULT_CONNECTION_ID);
-		bBuffer.putInt(Action.CONNECT);
-		bBuffer.putInt(transactionId);
+		return writeConnectRequest(transactionId,
+				ByteBuffer.allocate(UDPTrackerMessages.CONNECT_LENGTH));
+	}
+
+	/**
+	 * Same as {@link #createConnectRequest(int)}, in a buffer borrowed from
+	 * the pool.
+	 */
+	public static ByteBuffer createConnectRequest(int transactionId, BufferPool pool) {
+		return writeConnectRequest(transactionId,
+				pool.acquire(UDPTrackerMessages.CONNECT_LENGTH));
+	}
+
+	private static ByteBuffer writeConnectRequest(int transactionId, ByteBuffer bBuffer) {
+		UDPTrackerMessages.encodeConnect(bBuffer, transactionId);
 		bBuffer.flip();
 		return bBuffer;
 	}
 
 	public static ByteBuffer createScrapeRequest(long connectionId, int transactionId, Torrent torrent) {
-		ByteBuffer bBuffer = ByteBuffer.allocate(36);
-		bBuffer.putLong(connectionId);
-		bBuffer.putInt(Action.SCRAPE);
-		bBuffer.putInt(transactionId);
-		bBuffer.put(torrent.getInfoHash());
+		return createScrapeRequest(connectionId, transactionId, torrent.getInfoHash());
+	}
+
+	public static ByteBuffer createScrapeRequest(long connectionId, int transactionId, byte[] infoHash) {
+		return createScrapeRequest(connectionId, transactionId, Collections.singletonList(infoHash));
+	}
+
+	/**
+	 * Offset Size Name Value 0 64-bit integer connection_id 8 32-bit integer
+	 * action 2 // scrape 12 32-bit integer transaction_id 16 + 20 * n 20-byte
+	 * string info_hash, repeated for up to {@link #MAX_SCRAPE_HASHES} hashes.
+	 */
+	public static ByteBuffer createScrapeRequest(long connectionId, int transactionId, List<byte[]> infoHashes) {
+		return writeScrapeRequest(connectionId, transactionId, infoHashes,
+				ByteBuffer.allocate(UDPTrackerMessages.scrapeLength(infoHashes.size())));
+	}
+
+	/**
+	 * Same as {@link #createScrapeRequest(long, int, List)}, in a buffer
+	 * borrowed from the pool.
+	 */
+	public static ByteBuffer createScrapeRequest(long connectionId, int transactionId,
+			List<byte[]> infoHashes, BufferPool pool) {
+		return writeScrapeRequest(connectionId, transactionId, infoHashes,
+				pool.acquire(UDPTrackerMessages.scrapeLength(infoHashes.size())));
+	}
+
+	private static ByteBuffer writeScrapeRequest(long connectionId, int transactionId,
+			List<byte[]> infoHashes, ByteBuffer bBuffer) {
+		UDPTrackerMessages.encodeScrape(bBuffer, connectionId, transactionId, infoHashes);
 		bBuffer.flip();
 		return bBuffer;
 	}
@@ -265,10 +319,10 @@ public class UDPTrackerScraper extends TrackerScraper {
 		this.socket.setSoTimeout(timeout * 1000);
 
 		try {
-			DatagramPacket p = new DatagramPacket(new byte[UDP_PACKET_LENGTH],
-					UDP_PACKET_LENGTH);
-			this.socket.receive(p);
-			return ByteBuffer.wrap(p.getData(), 0, p.getLength());
+			// The length shrinks to that of the last packet received.
+			received.setLength(UDP_PACKET_LENGTH);
+			this.socket.receive(received);
+			return ByteBuffer.wrap(received.getData(), 0, received.getLength());
 		} catch (SocketTimeoutException ste) {
 			throw ste;
 		}
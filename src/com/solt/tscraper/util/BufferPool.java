@@ -0,0 +1,124 @@
+package com.solt.tscraper.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of direct {@link ByteBuffer}s in power-of-two size classes.
+ *
+ * <p>
+ * Buffers are borrowed with {@link #acquire(int)} and handed back with
+ * {@link #release(ByteBuffer)} once the I/O using them is over; in steady
+ * state, borrowing allocates nothing. Being direct, the buffers are passed
+ * to the socket without the copy into native memory that heap buffers
+ * take. Requests beyond the largest class get a plain heap buffer that is
+ * not pooled.
+ * </p>
+ *
+ * <p>
+ * A buffer must not be used after its release, nor released twice. This
+ * class is not thread-safe; it is meant to be owned by one event loop.
+ * </p>
+ */
+public class BufferPool {
+
+	/** Default size of the smallest class, in bytes. */
+	public static final int DEFAULT_MIN_SIZE = 64;
+
+	/** Default size of the largest class, in bytes. */
+	public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+	/** Default number of free buffers kept per class. */
+	public static final int DEFAULT_MAX_FREE_PER_CLASS = 256;
+
+	private final int minShift;
+	private final int maxSize;
+	private final int maxFreePerClass;
+	private final List<ArrayDeque<ByteBuffer>> free;
+	private long allocated;
+
+	public BufferPool() {
+		this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_FREE_PER_CLASS);
+	}
+
+	/**
+	 * @param minSize Size of the smallest class, a power of two.
+	 * @param maxSize Size of the largest class, a power of two.
+	 * @param maxFreePerClass Number of free buffers kept per class; more are
+	 * left to the garbage collector.
+	 */
+	public BufferPool(int minSize, int maxSize, int maxFreePerClass) {
+		if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1
+				|| minSize > maxSize || maxFreePerClass < 0) {
+			throw new IllegalArgumentException("Invalid buffer pool sizes");
+		}
+		this.minShift = Integer.numberOfTrailingZeros(minSize);
+		this.maxSize = maxSize;
+		this.maxFreePerClass = maxFreePerClass;
+		int classes = Integer.numberOfTrailingZeros(maxSize) - minShift + 1;
+		this.free = new ArrayList<>(classes);
+		for (int i = 0; i < classes; ++i) {
+			free.add(new ArrayDeque<>());
+		}
+	}
+
+	/**
+	 * Borrows a buffer with room for at least <code>size</code> bytes. It is
+	 * cleared, with its limit at <code>size</code>.
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Negative size " + size);
+		}
+		if (size > maxSize) {
+			return ByteBuffer.allocate(size);
+		}
+		int index = sizeClass(size);
+		ByteBuffer buffer = free.get(index).pollFirst();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(1 << (index + minShift));
+			++allocated;
+		}
+		buffer.clear().limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Hands a buffer back to the pool. Only writable direct buffers whose
+	 * capacity is exactly one of the pool's size classes are kept, as
+	 * {@link #acquire(int)} hands out; heap buffers and any other capacity
+	 * are ignored. The pool cannot tell its own buffers from foreign ones of
+	 * the same shape, so only buffers it handed out should be released.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (!buffer.isDirect() || buffer.isReadOnly()) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		if (capacity > maxSize || capacity < 1 << minShift
+				|| capacity != 1 << (sizeClass(capacity) + minShift)) {
+			return;
+		}
+		ArrayDeque<ByteBuffer> list = free.get(sizeClass(capacity));
+		if (list.size() < maxFreePerClass) {
+			// Most recently used first, its memory is likely still cached.
+			list.addFirst(buffer);
+		}
+	}
+
+	/**
+	 * Returns how many pooled buffers were allocated so far.
+	 */
+	public long getAllocated() {
+		return allocated;
+	}
+
+	private int sizeClass(int size) {
+		if (size <= 1 << minShift) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - minShift;
+	}
+}
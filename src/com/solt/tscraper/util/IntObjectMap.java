@@ -0,0 +1,195 @@
+package com.solt.tscraper.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive <code>int</code> keys to objects.
+ *
+ * <p>
+ * Entries live in two parallel arrays probed linearly, so lookups neither box
+ * the key nor allocate. Removal shifts the following entries of the probe
+ * run back instead of leaving tombstones, which keeps lookups short under
+ * heavy insert/remove churn. Values may not be <code>null</code>.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ *
+ * @param <V> the value type
+ */
+public class IntObjectMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private int[] keys;
+	private Object[] values;
+	private int mask;
+	private int size;
+
+	public IntObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize Number of entries the map holds without resizing.
+	 */
+	public IntObjectMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("Negative size " + expectedSize);
+		}
+		allocate(capacityFor(expectedSize));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(int key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Returns the value mapped to the key, or <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int index = indexOf(key);
+		return index < 0 ? null : (V) values[index];
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @return The value previously mapped to the key, or <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not supported");
+		}
+		int index = hash(key) & mask;
+		while (values[index] != null) {
+			if (keys[index] == key) {
+				V previous = (V) values[index];
+				values[index] = value;
+				return previous;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		values[index] = value;
+		if (++size > (mask + 1) >> 1) {
+			rehash((mask + 1) << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the mapping of the key.
+	 *
+	 * @return The removed value, or <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int index = indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+		V previous = (V) values[index];
+		removeAt(index);
+		return previous;
+	}
+
+	/**
+	 * Removes the mapping of the key only if it is mapped to the given value.
+	 *
+	 * @return <code>true</code> if the mapping was removed.
+	 */
+	public boolean remove(int key, Object value) {
+		int index = indexOf(key);
+		if (index < 0 || values[index] != value) {
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private int indexOf(int key) {
+		int index = hash(key) & mask;
+		while (values[index] != null) {
+			if (keys[index] == key) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Empties the slot, then moves back every following entry of the probe
+	 * run that would no longer be reachable from its home slot.
+	 */
+	private void removeAt(int index) {
+		values[index] = null;
+		--size;
+		int free = index;
+		int next = (index + 1) & mask;
+		while (values[next] != null) {
+			int home = hash(keys[next]) & mask;
+			// Move the entry if its home slot is not within (free, next].
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				values[next] = null;
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldValues.length; ++i) {
+			if (oldValues[i] != null) {
+				int index = hash(oldKeys[i]) & mask;
+				while (values[index] != null) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = 8;
+		while (capacity >> 1 < expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(int key) {
+		// Fibonacci hashing spreads sequential keys over the table.
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
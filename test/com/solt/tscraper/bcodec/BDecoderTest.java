@@ -0,0 +1,81 @@
+package com.solt.tscraper.bcodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BDecoderTest {
+    private static final byte[] ENCODED = "d4:listl3:abci-42ee4:name5:hello3:numi7ee"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @org.junit.jupiter.api.Test
+    void decodesBuffersInPlace() throws Exception {
+        byte[] framed = new byte[ENCODED.length + 6];
+        System.arraycopy(ENCODED, 0, framed, 3, ENCODED.length);
+        ByteBuffer heap = ByteBuffer.wrap(framed, 3, ENCODED.length).slice();
+        ByteBuffer direct = ByteBuffer.allocateDirect(ENCODED.length);
+        direct.put(ENCODED).flip();
+
+        for (ByteBuffer data : new ByteBuffer[] { heap, direct }) {
+            Map<String, BEValue> map = BDecoder.bdecode(data).getMap();
+            assertEquals("hello", map.get("name").getString());
+            assertEquals(7, map.get("num").getInt());
+            assertEquals("abc", map.get("list").getList().get(0).getString());
+            assertEquals(-42, map.get("list").getList().get(1).getLong());
+            assertEquals(0, data.position());
+        }
+
+        // Byte strings of a heap buffer are views of its array.
+        ByteBuffer name = BDecoder.bdecode(heap).getMap().get("name").getByteBuffer();
+        assertSame(framed, name.array());
+        framed[name.arrayOffset() + name.position()] = 'j';
+        assertEquals('j', name.get(name.position()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BEncoder.bencode(BDecoder.bdecode(direct), out);
+        assertArrayEquals(ENCODED, out.toByteArray());
+    }
+
+    @org.junit.jupiter.api.Test
+    void integersFittingALongStayPrimitive() throws Exception {
+        assertEquals(Long.valueOf(0), number("i0e").getValue());
+        assertEquals(-42, number("i-42e").getInt());
+        assertEquals(Long.MAX_VALUE, number("i9223372036854775807e").getLong());
+        assertEquals(Long.MIN_VALUE, number("i-9223372036854775808e").getLong());
+        assertTrue(number("i9223372036854775807e").getValue() instanceof Long);
+
+        BEValue big = number("i9223372036854775808e");
+        assertEquals(new BigInteger("9223372036854775808"), big.getNumber());
+        assertEquals(new BigInteger("-123456789012345678901234567890"),
+                number("i-123456789012345678901234567890e").getBigInteger());
+        assertEquals(BigInteger.valueOf(7), number("i7e").getBigInteger());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BEncoder.bencode(number("i-9223372036854775809e"), out);
+        assertEquals("i-9223372036854775809e", new String(out.toByteArray(), StandardCharsets.US_ASCII));
+
+        assertThrows(InvalidBEncodingException.class, () -> number("i012e"));
+        assertThrows(InvalidBEncodingException.class, () -> number("i-0e"));
+        assertThrows(InvalidBEncodingException.class, () -> number("i99999999999999999999xe"));
+    }
+
+    private static BEValue number(String s) throws Exception {
+        return BDecoder.bdecode(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @org.junit.jupiter.api.Test
+    void truncatedInputFails() throws Exception {
+        byte[] truncated = "d4:name10:hello".getBytes(StandardCharsets.US_ASCII);
+        assertThrows(EOFException.class, () -> BDecoder.bdecode(truncated));
+        assertThrows(EOFException.class,
+                () -> BDecoder.bdecode(new ByteArrayInputStream(truncated)));
+        assertThrows(InvalidBEncodingException.class,
+                () -> BDecoder.bdecode("99999999999:x".getBytes(StandardCharsets.US_ASCII)));
+    }
+}
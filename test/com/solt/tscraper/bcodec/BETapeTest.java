@@ -0,0 +1,89 @@
+package com.solt.tscraper.bcodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BETapeTest {
+    private static final byte[] ENCODED = ("d4:infod6:lengthi12345678901234567890e4:name5:hello"
+            + "e4:listll1:ai-1eei0ee3:numi7ee").getBytes(StandardCharsets.US_ASCII);
+
+    @org.junit.jupiter.api.Test
+    void decodesMembersOnDemand() throws Exception {
+        BETape tape = BETape.index(ByteBuffer.wrap(ENCODED), "UTF-8");
+        // root, 3 keys, info + 2 pairs, list + inner list + 3 values, 7
+        assertEquals(15, tape.getTokenCount());
+        assertEquals(ENCODED.length, tape.getEnd());
+
+        Map<String, BEValue> map = tape.getRoot().getMap();
+        assertEquals(3, map.size());
+        assertTrue(map.containsKey("num"));
+        assertFalse(map.containsKey("nu"));
+        assertNull(map.get("missing"));
+        assertEquals(7, map.get("num").getInt());
+
+        Map<String, BEValue> info = map.get("info").getMap();
+        assertEquals("hello", info.get("name").getString());
+        assertEquals(new BigInteger("12345678901234567890"), info.get("length").getNumber());
+
+        List<BEValue> list = map.get("list").getList();
+        assertEquals(2, list.size());
+        assertEquals("a", list.get(0).getList().get(0).getString());
+        assertEquals(-1, list.get(0).getList().get(1).getLong());
+        assertEquals(0, list.get(1).getInt());
+        assertThrows(InvalidBEncodingException.class, () -> list.get(1).getString());
+        assertEquals(Long.MIN_VALUE, bdecode("i-9223372036854775808e").getLong());
+        assertEquals(Long.valueOf(Long.MAX_VALUE), bdecode("i9223372036854775807e").getNumber());
+
+        Iterator<String> keys = map.keySet().iterator();
+        assertEquals("info", keys.next());
+        assertEquals("list", keys.next());
+        assertEquals("num", keys.next());
+        assertFalse(keys.hasNext());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BEncoder.bencode(tape.getRoot(), out);
+        assertArrayEquals(ENCODED, out.toByteArray());
+    }
+
+    @org.junit.jupiter.api.Test
+    void valuesKnowTheirSourceBytes() throws Exception {
+        Map<String, BEValue> map = BETape.bdecode(ByteBuffer.wrap(ENCODED)).getMap();
+        assertEquals("d6:lengthi12345678901234567890e4:name5:helloe",
+                source(map.get("info")));
+        assertEquals("5:hello", source(map.get("info").getMap().get("name")));
+        assertEquals("i-1e", source(map.get("list").getList().get(0).getList().get(1)));
+        assertNull(new BEValue(7).getEncoded());
+        // Leading zeros in a length are read as they are written.
+        Map<String, BEValue> padded = bdecode("d4:spam04:eggs3:numi3ee").getMap();
+        assertEquals("04:eggs", source(padded.get("spam")));
+        assertEquals("eggs", padded.get("spam").getString());
+        assertEquals("i3e", source(padded.get("num")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void invalidInputFails() throws Exception {
+        assertThrows(EOFException.class, () -> bdecode("d4:name5:hel"));
+        assertThrows(EOFException.class, () -> bdecode("li1e"));
+        assertThrows(InvalidBEncodingException.class, () -> bdecode("di1e1:ae"));
+        assertThrows(InvalidBEncodingException.class, () -> bdecode("d1:ae"));
+        assertThrows(InvalidBEncodingException.class, () -> bdecode("i012e"));
+        assertThrows(InvalidBEncodingException.class, () -> bdecode("i-0e"));
+        assertThrows(InvalidBEncodingException.class, () -> bdecode("x"));
+    }
+
+    private static String source(BEValue value) {
+        return StandardCharsets.US_ASCII.decode(value.getEncoded()).toString();
+    }
+
+    private static BEValue bdecode(String s) throws Exception {
+        return BETape.bdecode(ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,102 @@
+package com.solt.tscraper.bcodec;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BEventParserTest {
+    private static final String ENCODED = "d4:listl3:abci-42ee4:name11:hello world3:numi9223372036854775807ee";
+    private static final String EVENTS = "{ key:list [ bytes:abc int:-42 ] key:name bytes:hello world"
+            + " key:num int:9223372036854775807 }";
+
+    @org.junit.jupiter.api.Test
+    void reportsEventsWhateverTheChunking() throws Exception {
+        byte[] encoded = (ENCODED + "trailing").getBytes(StandardCharsets.US_ASCII);
+        for (int chunk : new int[] { 1, 3, encoded.length }) {
+            Recorder recorder = new Recorder();
+            BEventParser parser = new BEventParser(recorder);
+            boolean complete = false;
+            int offset = 0;
+            ByteBuffer last = null;
+            while (!complete) {
+                last = ByteBuffer.wrap(encoded, offset, Math.min(chunk, encoded.length - offset));
+                complete = parser.feed(last);
+                offset = last.position();
+            }
+            assertEquals(EVENTS, recorder.events.toString().trim());
+            assertEquals(ENCODED.length(), offset);
+            assertEquals(0, parser.getDepth());
+            parser.endOfStream();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void invalidInputFails() throws Exception {
+        assertThrows(EOFException.class, () -> parse("d4:name5:hel"));
+        assertThrows(InvalidBEncodingException.class, () -> parse("di1e1:ae"));
+        assertThrows(InvalidBEncodingException.class, () -> parse("d1:ae"));
+        assertThrows(InvalidBEncodingException.class, () -> parse("i012e"));
+        assertThrows(InvalidBEncodingException.class, () -> parse("i-0e"));
+        assertThrows(InvalidBEncodingException.class, () -> parse("i9223372036854775808e"));
+        assertThrows(InvalidBEncodingException.class, () -> parse("x"));
+        assertThrows(InvalidBEncodingException.class,
+                () -> new BEventParser(new Recorder(), 2, 16).feed(bytes("llli1eeee")));
+        assertThrows(InvalidBEncodingException.class,
+                () -> new BEventParser(new Recorder(), 2, 16).feed(bytes("17:")));
+        assertEquals(Long.MIN_VALUE, parse("i-9223372036854775808e").number);
+    }
+
+    private static Recorder parse(String s) throws Exception {
+        Recorder recorder = new Recorder();
+        BEventParser parser = new BEventParser(recorder);
+        parser.feed(bytes(s));
+        parser.endOfStream();
+        return recorder;
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static class Recorder implements BEventHandler {
+        final StringBuilder events = new StringBuilder();
+        final StringBuilder open = new StringBuilder();
+        long number;
+
+        @Override
+        public void dictStart() {
+            events.append(" {");
+            open.append('}');
+        }
+
+        @Override
+        public void listStart() {
+            events.append(" [");
+            open.append(']');
+        }
+
+        @Override
+        public void key(ByteBuffer key) {
+            events.append(" key:").append(StandardCharsets.US_ASCII.decode(key));
+        }
+
+        @Override
+        public void bytes(ByteBuffer value) {
+            events.append(" bytes:").append(StandardCharsets.US_ASCII.decode(value));
+        }
+
+        @Override
+        public void integer(long value) {
+            number = value;
+            events.append(" int:").append(value);
+        }
+
+        @Override
+        public void end() {
+            events.append(' ').append(open.charAt(open.length() - 1));
+            open.setLength(open.length() - 1);
+        }
+    }
+}
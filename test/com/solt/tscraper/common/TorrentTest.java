@@ -0,0 +1,25 @@
+package com.solt.tscraper.common;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TorrentTest {
+
+    @org.junit.jupiter.api.Test
+    void infoHashIsTakenOverTheBytesAsRead() throws Exception {
+        // Keys out of order: re-encoding would sort them and change the hash.
+        String info = "d4:name4:file6:lengthi3e12:piece lengthi16384e6:pieces20:"
+                + "aaaaaaaaaaaaaaaaaaaae";
+        byte[] torrent = ("d8:announce20:udp://tracker.org:804:info" + info + "e")
+                .getBytes(StandardCharsets.ISO_8859_1);
+
+        Torrent t = new Torrent(torrent, false);
+        assertArrayEquals(DigestUtils.sha1(info.getBytes(StandardCharsets.ISO_8859_1)),
+                t.getInfoHash());
+        assertEquals("file", t.getName());
+        assertEquals(3, t.getSize());
+    }
+}
@@ -0,0 +1,52 @@
+package com.solt.tscraper.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedWheelTimerTest {
+
+    @org.junit.jupiter.api.Test
+    void firesDueTimeoutsInTickOrder() {
+        HashedWheelTimer timer = new HashedWheelTimer(10, 8, 0);
+        List<String> fired = new ArrayList<>();
+        timer.schedule(() -> fired.add("late"), 1000);
+        timer.schedule(() -> fired.add("early"), 25);
+        HashedWheelTimer.Timeout cancelled = timer.schedule(() -> fired.add("cancelled"), 30);
+        assertEquals(3, timer.size());
+
+        cancelled.cancel();
+        timer.expire(29);
+        assertEquals(0, fired.size());
+        timer.expire(30);
+        assertEquals(Arrays.asList("early"), fired);
+
+        // The late timeout waits several turns of the wheel.
+        timer.expire(999);
+        assertEquals(1, fired.size());
+        timer.expire(1000);
+        assertEquals(Arrays.asList("early", "late"), fired);
+        assertEquals(0, timer.size());
+        assertEquals(0, timer.getDelay(1000));
+    }
+
+    @org.junit.jupiter.api.Test
+    void tasksMayRescheduleWhileExpiring() {
+        HashedWheelTimer timer = new HashedWheelTimer(10, 4, 0);
+        List<Long> fired = new ArrayList<>();
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.add(10L * fired.size());
+                if (fired.size() < 3) {
+                    timer.schedule(this, 10L * (fired.size() + 1));
+                }
+            }
+        }, 10);
+        timer.expire(100);
+        assertEquals(Arrays.asList(0L, 10L, 20L), fired);
+        assertEquals(0, timer.size());
+    }
+}
@@ -0,0 +1,54 @@
+package com.solt.tscraper.engine;
+
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.solt.tscraper.tracker.ScrapeException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostResolverTest {
+
+    @org.junit.jupiter.api.Test
+    void cachesPositiveAndNegativeAnswers() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        HostResolver resolver = new HostResolver(task -> {
+            lookups.incrementAndGet();
+            task.run();
+        }, 60000, 60000);
+
+        InetAddress address = resolver.resolve("127.0.0.1").get();
+        assertTrue(address.isLoopbackAddress());
+        assertSame(address, resolver.resolve("127.0.0.1").get());
+        assertEquals(1, lookups.get());
+
+        CompletableFuture<InetAddress> failed = resolver.resolve("[::1");
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertTrue(e.getCause() instanceof ScrapeException);
+        assertSame(failed, resolver.resolve("[::1"));
+        assertEquals(2, lookups.get());
+    }
+
+    @org.junit.jupiter.api.Test
+    void expiredAnswersAreLookedUpAgain() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        HostResolver resolver = new HostResolver(task -> {
+            lookups.incrementAndGet();
+            task.run();
+        }, 0, 0);
+        resolver.resolve("127.0.0.1").get();
+        resolver.resolve("127.0.0.1").get();
+        assertEquals(2, lookups.get());
+    }
+
+    @org.junit.jupiter.api.Test
+    void expiredAnswersAreForgotten() throws Exception {
+        HostResolver resolver = new HostResolver(Runnable::run, 0, 0);
+        resolver.resolve("127.0.0.1").get();
+        resolver.resolve("127.0.0.2").get();
+        resolver.resolve("127.0.0.3").get();
+        assertEquals(1, resolver.size());
+    }
+}
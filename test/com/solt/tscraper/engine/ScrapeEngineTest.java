@@ -0,0 +1,659 @@
+package com.solt.tscraper.engine;
+
+import com.solt.tscraper.common.Torrent;
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.torrent.ScrapeListener;
+import com.solt.tscraper.tracker.udp.Action;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ScrapeEngineTest {
+
+    /**
+     * Minimal UDP tracker answering every scraped hash with seeders equal to
+     * the first byte of the hash.
+     */
+    static class FakeUDPTracker extends Thread {
+        final DatagramSocket socket;
+        /** Number of incoming datagrams to drop, simulating packet loss. */
+        volatile int drop;
+        /** Number of connect requests answered. */
+        volatile int connects;
+        /** Number of scrape requests answered. */
+        volatile int scrapes;
+        /** Number of info hashes in each scrape request answered. */
+        final List<Integer> packets = new CopyOnWriteArrayList<>();
+
+        FakeUDPTracker() throws SocketException {
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            setDaemon(true);
+        }
+
+        URI uri() {
+            return URI.create("udp://127.0.0.1:" + socket.getLocalPort() + "/announce");
+        }
+
+        @Override
+        public void run() {
+            byte[] data = new byte[2048];
+            try {
+                while (true) {
+                    DatagramPacket p = new DatagramPacket(data, data.length);
+                    socket.receive(p);
+                    if (drop > 0) {
+                        drop--;
+                        continue;
+                    }
+                    ByteBuffer req = ByteBuffer.wrap(data, 0, p.getLength());
+                    long connectionId = req.getLong();
+                    int action = req.getInt();
+                    int transactionId = req.getInt();
+                    ByteBuffer resp = ByteBuffer.allocate(2048);
+                    if (action == Action.CONNECT) {
+                        connects++;
+                        resp.putInt(Action.CONNECT).putInt(transactionId).putLong(42);
+                    } else if (action == Action.SCRAPE && connectionId == 42) {
+                        scrapes++;
+                        packets.add(req.remaining() / 20);
+                        resp.putInt(Action.SCRAPE).putInt(transactionId);
+                        while (req.remaining() >= 20) {
+                            byte first = req.get();
+                            req.position(req.position() + 19);
+                            resp.putInt(first).putInt(7).putInt(3);
+                        }
+                    } else {
+                        resp.putInt(Action.ERROR).putInt(transactionId)
+                                .put("bad request".getBytes(StandardCharsets.US_ASCII));
+                    }
+                    resp.flip();
+                    socket.send(new DatagramPacket(resp.array(), resp.limit(), p.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                // Socket closed.
+            }
+        }
+    }
+
+    /**
+     * Minimal HTTP tracker answering every requested hash with seeders equal
+     * to the first byte of the hash.
+     */
+    static class FakeHTTPTracker extends Thread {
+        final ServerSocket server;
+        final AtomicInteger connections = new AtomicInteger();
+        /** TLS sessions seen by the server, by id. */
+        final Set<String> sessions = ConcurrentHashMap.newKeySet();
+        /** Whether to serve further requests on the same connection. */
+        volatile boolean keepAlive;
+
+        FakeHTTPTracker() throws IOException {
+            this(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+        }
+
+        FakeHTTPTracker(ServerSocket server) {
+            this.server = server;
+            setDaemon(true);
+        }
+
+        URI uri() {
+            return URI.create((server instanceof SSLServerSocket ? "https" : "http")
+                    + "://127.0.0.1:" + server.getLocalPort() + "/announce");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    try (Socket socket = server.accept()) {
+                        connections.incrementAndGet();
+                        if (socket instanceof SSLSocket) {
+                            sessions.add(Arrays.toString(((SSLSocket) socket).getSession().getId()));
+                        }
+                        do {
+                            if (!serve(socket)) {
+                                break;
+                            }
+                        } while (keepAlive);
+                    }
+                }
+            } catch (IOException e) {
+                // Server closed.
+            }
+        }
+
+        private boolean serve(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) != -1) {
+                head.write(c);
+                byte[] b = head.toByteArray();
+                int n = b.length;
+                if (n >= 4 && b[n - 4] == '\r' && b[n - 3] == '\n' && b[n - 2] == '\r' && b[n - 1] == '\n') {
+                    break;
+                }
+            }
+            if (c == -1) {
+                return false;
+            }
+            String requestLine = head.toString("ISO-8859-1").split("\r\n")[0];
+            String query = requestLine.split(" ")[1].split("\\?")[1];
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write("d5:filesd".getBytes(StandardCharsets.US_ASCII));
+            for (String param : query.split("&")) {
+                byte[] hash = URLDecoder.decode(param.substring("info_hash=".length()), "ISO-8859-1")
+                        .getBytes(StandardCharsets.ISO_8859_1);
+                body.write("20:".getBytes(StandardCharsets.US_ASCII));
+                body.write(hash);
+                body.write(("d8:completei" + hash[0] + "e10:downloadedi9e10:incompletei2ee")
+                        .getBytes(StandardCharsets.US_ASCII));
+            }
+            body.write("ee".getBytes(StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.size()
+                    + (keepAlive ? "\r\n\r\n" : "\r\nConnection: close\r\n\r\n"))
+                    .getBytes(StandardCharsets.US_ASCII));
+            body.writeTo(out);
+            out.flush();
+            return true;
+        }
+    }
+
+    static class Collector implements ScrapeListener {
+        final Map<String, TorrentState> states = new ConcurrentHashMap<>();
+        final Map<String, Throwable> errors = new ConcurrentHashMap<>();
+
+        @Override
+        public void onTrackerSuccess(Torrent torrent, URI tracker, TorrentState state) {
+            states.put(tracker.getScheme() + state.getComplete(), state);
+        }
+
+        @Override
+        public void onTrackerError(Torrent torrent, URI tracker, Throwable cause) {
+            errors.put(tracker.toString(), cause);
+        }
+
+        @Override
+        public void onError(Torrent torrent, Throwable cause) {
+            errors.put("job", cause);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void scrapeManyHashesOnSharedTrackers() throws Exception {
+        FakeUDPTracker udp = new FakeUDPTracker();
+        FakeHTTPTracker http = new FakeHTTPTracker();
+        udp.start();
+        http.start();
+        ScrapeEngine engine = new ScrapeEngine();
+        try {
+            Collector collector = new Collector();
+            List<ScrapeJob> jobs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                byte[] hash = new byte[20];
+                hash[0] = (byte) i;
+                jobs.add(engine.submit(hash, Arrays.asList(udp.uri(), http.uri()), collector));
+            }
+            for (ScrapeJob job : jobs) {
+                assertTrue(job.await(10, TimeUnit.SECONDS));
+            }
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+            for (int i = 0; i < 100; i++) {
+                TorrentState state = collector.states.get("udp" + i);
+                assertNotNull(state);
+                assertEquals(7, state.getDownloaded());
+                assertEquals(3, state.getIncomplete());
+            }
+            for (int i = 0; i < 100; i++) {
+                TorrentState state = collector.states.get("http" + i);
+                assertNotNull(state);
+                assertEquals(9, state.getDownloaded());
+            }
+        } finally {
+            engine.shutdown();
+            udp.socket.close();
+            http.server.close();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void scrapeOverNetty() throws Exception {
+        FakeUDPTracker udp = new FakeUDPTracker();
+        FakeHTTPTracker http = new FakeHTTPTracker();
+        udp.start();
+        http.start();
+        ScrapeEngine engine = ScrapeEngine.withNetty(ScrapeEngine.DEFAULT_TIMEOUT);
+        try {
+            Collector collector = new Collector();
+            List<ScrapeJob> jobs = new ArrayList<>();
+            for (int i = 0; i < 80; i++) {
+                byte[] hash = new byte[20];
+                hash[0] = (byte) i;
+                jobs.add(engine.submit(hash, Arrays.asList(udp.uri(), http.uri()), collector));
+            }
+            for (ScrapeJob job : jobs) {
+                assertEquals(9, job.getFuture().get(10, TimeUnit.SECONDS).getDownloaded());
+            }
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+            assertEquals(7, collector.states.get("udp79").getDownloaded());
+            assertEquals(79, collector.states.get("http79").getComplete());
+        } finally {
+            engine.shutdown();
+            udp.socket.close();
+            http.server.close();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void nettyShardsTrackersOverLoops() throws Exception {
+        FakeUDPTracker[] trackers = new FakeUDPTracker[4];
+        List<URI> uris = new ArrayList<>();
+        for (int i = 0; i < trackers.length; i++) {
+            trackers[i] = new FakeUDPTracker();
+            trackers[i].start();
+            uris.add(trackers[i].uri());
+        }
+        FakeHTTPTracker http = new FakeHTTPTracker();
+        http.start();
+        uris.add(http.uri());
+        ScrapeEngineConfig config = new ScrapeEngineConfig();
+        config.setEventLoops(3);
+        config.setUdpReceiveBufferSize(256 * 1024);
+        ScrapeEngine engine = ScrapeEngine.withNetty(config);
+        try {
+            Collector collector = new Collector();
+            List<ScrapeJob> jobs = new ArrayList<>();
+            for (int i = 1; i <= 40; i++) {
+                byte[] hash = new byte[20];
+                hash[0] = (byte) i;
+                hash[1] = 8;
+                jobs.add(engine.submit(hash, uris, collector));
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                assertEquals(i + 1, jobs.get(i).getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            }
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+            // Transactions of a tracker wait for its one connect request.
+            for (FakeUDPTracker tracker : trackers) {
+                assertEquals(1, tracker.connects);
+            }
+        } finally {
+            engine.shutdown();
+            for (FakeUDPTracker tracker : trackers) {
+                tracker.socket.close();
+            }
+            http.server.close();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void httpConnectionsAreReused() throws Exception {
+        reuseHttpConnections(ScrapeEngine::new);
+    }
+
+    @org.junit.jupiter.api.Test
+    void httpConnectionsAreReusedOverNetty() throws Exception {
+        reuseHttpConnections(ScrapeEngine::withNetty);
+    }
+
+    private static void reuseHttpConnections(EngineFactory factory) throws Exception {
+        FakeHTTPTracker http = new FakeHTTPTracker();
+        http.keepAlive = true;
+        http.start();
+        ScrapeEngine engine = factory.create(new ScrapeEngineConfig());
+        try {
+            Collector collector = new Collector();
+            for (int i = 0; i < 5; i++) {
+                byte[] hash = new byte[20];
+                hash[0] = (byte) i;
+                ScrapeJob job = engine.submit(hash, Collections.singletonList(http.uri()), collector);
+                assertEquals(i, job.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            }
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+            assertEquals(1, http.connections.get());
+        } finally {
+            engine.shutdown();
+            http.server.close();
+        }
+    }
+
+    /**
+     * Creates a self-signed certificate for 127.0.0.1 with the JDK's keytool
+     * and returns a context serving it, which also trusts it.
+     */
+    static SSLContext selfSignedContext() throws Exception {
+        Path dir = Files.createTempDirectory("tscraper");
+        Path keyStore = dir.resolve("tracker.p12");
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "tracker",
+                "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=127.0.0.1", "-ext", "SAN=ip:127.0.0.1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", "changeit", "-keypass", "changeit")
+                .redirectErrorStream(true).start();
+        assumeTrue(process.waitFor(60, TimeUnit.SECONDS) && process.exitValue() == 0,
+                "keytool is not available");
+        char[] password = "changeit".toCharArray();
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            store.load(in, password);
+        } finally {
+            Files.delete(keyStore);
+            Files.delete(dir);
+        }
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(store, password);
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        return context;
+    }
+
+    @org.junit.jupiter.api.Test
+    void httpsTrackersResumeSessions() throws Exception {
+        SSLContext context = selfSignedContext();
+        SSLServerSocket server = (SSLServerSocket) context.getServerSocketFactory()
+                .createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        // TLS 1.2 keeps the session id of a resumed session.
+        server.setEnabledProtocols(new String[] {"TLSv1.2"});
+        FakeHTTPTracker https = new FakeHTTPTracker(server);
+        https.start();
+        ScrapeEngine engine = new ScrapeEngine(ScrapeEngine.DEFAULT_TIMEOUT,
+                ScrapeEngine.DEFAULT_UDP_ATTEMPTS, context);
+        try {
+            Collector collector = new Collector();
+            for (int i = 0; i < 3; i++) {
+                byte[] hash = new byte[20];
+                hash[0] = (byte) i;
+                ScrapeJob job = engine.submit(hash, Collections.singletonList(https.uri()), collector);
+                assertEquals(i, job.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            }
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+            // One connection per scrape, all on the first TLS session.
+            assertEquals(3, https.connections.get());
+            assertEquals(1, https.sessions.size(), https.sessions.toString());
+        } finally {
+            engine.shutdown();
+            https.server.close();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void repliesBeyondTheReadBudgetAreStillRead() throws Exception {
+        FakeUDPTracker[] trackers = new FakeUDPTracker[8];
+        List<URI> uris = new ArrayList<>();
+        for (int i = 0; i < trackers.length; i++) {
+            trackers[i] = new FakeUDPTracker();
+            trackers[i].start();
+            uris.add(trackers[i].uri());
+        }
+        ScrapeEngineConfig config = new ScrapeEngineConfig();
+        config.setUdpReadBudget(1);
+        ScrapeEngine engine = new ScrapeEngine(config);
+        try {
+            Collector collector = new Collector();
+            byte[] hash = new byte[20];
+            hash[0] = 3;
+            // Replies of all trackers arrive in a burst.
+            ScrapeJob job = engine.submit(hash, uris, collector);
+            assertEquals(3, job.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+        } finally {
+            engine.shutdown();
+            for (FakeUDPTracker tracker : trackers) {
+                tracker.socket.close();
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void trackersAreShardedOverEventLoops() throws Exception {
+        FakeUDPTracker[] trackers = new FakeUDPTracker[6];
+        List<URI> uris = new ArrayList<>();
+        for (int i = 0; i < trackers.length; i++) {
+            trackers[i] = new FakeUDPTracker();
+            trackers[i].start();
+            uris.add(trackers[i].uri());
+        }
+        FakeHTTPTracker http = new FakeHTTPTracker();
+        http.start();
+        uris.add(http.uri());
+        ScrapeEngineConfig config = new ScrapeEngineConfig();
+        config.setEventLoops(4);
+        // One shared port: replies reaching the socket of a sibling loop are
+        // handed over.
+        config.setReusePort(true);
+        config.setUdpReceiveBufferSize(256 * 1024);
+        config.setUdpSendBufferSize(256 * 1024);
+        ScrapeEngine engine = new ScrapeEngine(config);
+        try {
+            Collector collector = new Collector();
+            List<ScrapeJob> jobs = new ArrayList<>();
+            for (int i = 1; i <= 50; i++) {
+                byte[] hash = new byte[20];
+                hash[0] = (byte) i;
+                hash[1] = 9;
+                jobs.add(engine.submit(hash, uris, collector));
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                assertEquals(i + 1, jobs.get(i).getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            }
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+        } finally {
+            engine.shutdown();
+            http.server.close();
+            for (FakeUDPTracker tracker : trackers) {
+                tracker.socket.close();
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void limitedTrackersAreScrapedAtTheirPace() throws Exception {
+        FakeUDPTracker udp = new FakeUDPTracker();
+        udp.start();
+        ScrapeEngineConfig config = new ScrapeEngineConfig();
+        config.setTrackerLimit("127.0.0.1", new TrackerLimit(1, 1, 1));
+        ScrapeEngine engine = new ScrapeEngine(config);
+        try {
+            Collector collector = new Collector();
+            List<byte[]> hashes = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                byte[] hash = new byte[20];
+                hash[0] = 4;
+                hash[1] = (byte) i;
+                hashes.add(hash);
+            }
+            // Two scrape packets, of 74 and 26 info hashes.
+            List<ScrapeJob> jobs = engine.submit(hashes, Collections.singletonList(udp.uri()), collector);
+            assertEquals(4, jobs.get(0).getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            // The second one waits a second for its token: the pace itself is
+            // checked against an explicit clock in TrackerLimiterTest.
+            assertEquals(Collections.singletonList(74), udp.packets);
+            assertFalse(jobs.get(99).isDone());
+            for (ScrapeJob job : jobs) {
+                assertEquals(4, job.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            }
+            assertEquals(Arrays.asList(74, 26), udp.packets);
+
+            // Submitted apart while the tracker is out of tokens, but sent
+            // together once the next one comes.
+            ScrapeJob first = engine.submit(hashes.get(0), Collections.singletonList(udp.uri()), collector);
+            ScrapeJob second = engine.submit(hashes.get(1), Collections.singletonList(udp.uri()), collector);
+            assertEquals(4, first.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            assertEquals(4, second.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            assertEquals(Arrays.asList(74, 26, 2), udp.packets);
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+        } finally {
+            engine.shutdown();
+            udp.socket.close();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void concurrentTransactionsShareOneConnect() throws Exception {
+        FakeUDPTracker udp = new FakeUDPTracker();
+        udp.start();
+        ScrapeEngine engine = new ScrapeEngine();
+        try {
+            Collector collector = new Collector();
+            List<ScrapeJob> jobs = new ArrayList<>();
+            // Three transactions of up to 74 info hashes, then a later one.
+            for (int i = 0; i < 200; i++) {
+                byte[] hash = new byte[20];
+                hash[0] = 6;
+                hash[1] = (byte) i;
+                jobs.add(engine.submit(hash, Collections.singletonList(udp.uri()), collector));
+            }
+            for (ScrapeJob job : jobs) {
+                assertEquals(6, job.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            }
+            byte[] hash = new byte[20];
+            hash[0] = 7;
+            ScrapeJob job = engine.submit(hash, Collections.singletonList(udp.uri()), collector);
+            assertEquals(7, job.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            assertEquals(1, udp.connects);
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+        } finally {
+            engine.shutdown();
+            udp.socket.close();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void lostDatagramsAreRetransmitted() throws Exception {
+        FakeUDPTracker udp = new FakeUDPTracker();
+        udp.drop = 2;
+        udp.start();
+        ScrapeEngine engine = new ScrapeEngine(200, 3);
+        try {
+            Collector collector = new Collector();
+            byte[] hash = new byte[20];
+            hash[0] = 5;
+            ScrapeJob job = engine.submit(hash, Collections.singletonList(udp.uri()), collector);
+            assertEquals(5, job.getFuture().get(10, TimeUnit.SECONDS).getComplete());
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+        } finally {
+            engine.shutdown();
+            udp.socket.close();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void unsupportedAndUnreachableTrackersFail() throws Exception {
+        ScrapeEngineConfig config = new ScrapeEngineConfig();
+        config.setTimeout(500);
+        // Kept out of the process-wide registry shared by other tests.
+        config.setHealthRegistry(new TrackerHealthRegistry());
+        ScrapeEngine engine = new ScrapeEngine(config);
+        try {
+            Collector collector = new Collector();
+            ScrapeJob job = engine.submit(new byte[20], Arrays.asList(
+                    URI.create("wss://tracker.example.invalid"),
+                    URI.create("udp://127.0.0.1:9/announce")), collector);
+            assertTrue(job.await(10, TimeUnit.SECONDS));
+            assertEquals(2, collector.errors.size());
+            assertTrue(collector.states.isEmpty());
+            assertTrue(engine.submit(new byte[20], Collections.<URI>emptyList(), collector).isDone());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void deadTrackersAreSkipped() throws Exception {
+        skipDeadTrackers(ScrapeEngine::new);
+    }
+
+    @org.junit.jupiter.api.Test
+    void deadTrackersAreSkippedOverNetty() throws Exception {
+        skipDeadTrackers(ScrapeEngine::withNetty);
+    }
+
+    interface EngineFactory {
+        ScrapeEngine create(ScrapeEngineConfig config) throws IOException;
+    }
+
+    private static void skipDeadTrackers(EngineFactory factory) throws Exception {
+        DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        ScrapeEngineConfig config = new ScrapeEngineConfig();
+        config.setTimeout(200);
+        config.setUdpAttempts(1);
+        TrackerHealthRegistry registry = new TrackerHealthRegistry(1, 60000, 60000);
+        config.setHealthRegistry(registry);
+        ScrapeEngine engine = factory.create(config);
+        try {
+            URI tracker = URI.create("udp://127.0.0.1:" + silent.getLocalPort() + "/announce");
+            Collector collector = new Collector();
+            ScrapeJob job = engine.submit(new byte[20], Collections.singletonList(tracker), collector);
+            assertTrue(job.await(10, TimeUnit.SECONDS));
+            assertEquals(TrackerHealth.State.OPEN, registry.getHealth(tracker).getState());
+
+            // Failed without an exchange, so the open circuit is not reported
+            // as another failure.
+            job = engine.submit(new byte[20], Collections.singletonList(tracker), collector);
+            assertTrue(job.await(10, TimeUnit.SECONDS));
+            assertTrue(collector.errors.get(tracker.toString()).getMessage().startsWith("Skipping"));
+            assertEquals(1, registry.getHealth(tracker).getFailures());
+        } finally {
+            engine.shutdown();
+            silent.close();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void cancelledJobsStopReporting() throws Exception {
+        DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        ScrapeEngine engine = new ScrapeEngine(1000);
+        try {
+            Collector collector = new Collector();
+            ScrapeJob job = engine.submit(new byte[20], Collections.singletonList(
+                    URI.create("udp://127.0.0.1:" + silent.getLocalPort() + "/announce")), collector);
+            assertTrue(job.getFuture().cancel(true));
+            assertTrue(job.isDone());
+            Thread.sleep(1500);
+            assertTrue(collector.errors.isEmpty(), collector.errors.toString());
+            assertTrue(job.getFuture().isCancelled());
+        } finally {
+            engine.shutdown();
+            silent.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.solt.tscraper.engine;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackerHealthTest {
+
+    @org.junit.jupiter.api.Test
+    void circuitOpensAndIsProbed() {
+        TrackerHealthRegistry registry = new TrackerHealthRegistry(2, 1000, 3000);
+        TrackerHealth health = registry.getHealth(URI.create("udp://Tracker.example:80/announce"));
+        assertSame(health, registry.getHealth(URI.create("udp://tracker.example:80/other")));
+
+        health.succeeded(100);
+        health.succeeded(200);
+        assertEquals(120, health.getLatency(), 0.001);
+        health.failed(0);
+        assertTrue(health.allowRequest(0));
+        health.failed(0);
+        assertEquals(TrackerHealth.State.OPEN, health.getState());
+        assertEquals(2, health.getConsecutiveFailures());
+        assertTrue(health.getSuccessRate() < 1);
+        assertFalse(health.allowRequest(999));
+
+        // A single probe, whose failure doubles the wait.
+        assertTrue(health.allowRequest(1000));
+        assertEquals(TrackerHealth.State.HALF_OPEN, health.getState());
+        assertFalse(health.allowRequest(1000));
+        health.failed(1000);
+        assertFalse(health.allowRequest(2999));
+        assertTrue(health.allowRequest(3000));
+        health.failed(3000);
+        // Capped at the longest interval.
+        assertFalse(health.allowRequest(5999));
+        assertTrue(health.allowRequest(6000));
+        health.succeeded(50);
+        assertEquals(TrackerHealth.State.CLOSED, health.getState());
+        assertEquals(0, health.getConsecutiveFailures());
+        assertTrue(health.allowRequest(6000));
+    }
+}
@@ -0,0 +1,33 @@
+package com.solt.tscraper.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackerLimiterTest {
+
+    @org.junit.jupiter.api.Test
+    void tokensRefillAtTheConfiguredRate() {
+        TrackerLimiter limiter = new TrackerLimiter(new TrackerLimit(10, 2, 0), 1000);
+        assertTrue(limiter.tryAcquire(1000));
+        assertTrue(limiter.tryAcquire(1000));
+        assertFalse(limiter.tryAcquire(1000));
+        assertEquals(100, limiter.getDelay(1000));
+        assertEquals(50, limiter.getDelay(1050));
+        assertTrue(limiter.tryAcquire(1100));
+        // The bucket never holds more than the burst.
+        assertTrue(limiter.tryAcquire(5000));
+        assertTrue(limiter.tryAcquire(5000));
+        assertFalse(limiter.tryAcquire(5000));
+    }
+
+    @org.junit.jupiter.api.Test
+    void inFlightCapWaitsForReleases() {
+        TrackerLimiter limiter = new TrackerLimiter(new TrackerLimit(0, 0, 2), 0);
+        assertTrue(limiter.tryAcquire(0));
+        assertTrue(limiter.tryAcquire(0));
+        assertFalse(limiter.tryAcquire(0));
+        assertEquals(-1, limiter.getDelay(0));
+        limiter.release();
+        assertEquals(0, limiter.getDelay(0));
+        assertTrue(limiter.tryAcquire(0));
+    }
+}
@@ -0,0 +1,28 @@
+package com.solt.tscraper.engine;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UDPConnectionTest {
+
+    @org.junit.jupiter.api.Test
+    void connectionIdIsRenewedBeforeItExpires() {
+        UDPConnection connection = new UDPConnection(new InetSocketAddress("127.0.0.1", 6969));
+        assertFalse(connection.isValid(0));
+        connection.connected(42, 1000);
+        assertTrue(connection.isValid(1000));
+        assertFalse(connection.needsRefresh(1000 + UDPConnection.REFRESH_AGE - 1));
+        assertTrue(connection.needsRefresh(1000 + UDPConnection.REFRESH_AGE));
+        connection.setConnecting(new UDPTransaction(null, connection,
+                Collections.<ScrapeJob>emptyList()));
+        // One renewal at a time.
+        assertFalse(connection.needsRefresh(1000 + UDPConnection.REFRESH_AGE));
+        assertTrue(connection.isValid(1000 + UDPConnection.LIFETIME - 1));
+        assertFalse(connection.isValid(1000 + UDPConnection.LIFETIME));
+        connection.connected(43, 70000);
+        assertNull(connection.getConnecting());
+        assertEquals(43, connection.getConnectionId());
+    }
+}
@@ -0,0 +1,125 @@
+package com.solt.tscraper.tracker.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.solt.tscraper.tracker.ScrapeException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HTTPResponseParserTest {
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String body(HTTPResponseParser parser) {
+        ByteBuffer body = parser.getBody();
+        return new String(body.array(), body.position(), body.remaining(), StandardCharsets.ISO_8859_1);
+    }
+
+    @org.junit.jupiter.api.Test
+    void parsesChunkedResponseFedByteByByte() {
+        String response = "HTTP/1.1 100 Continue\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5;ext=1\r\nd5:fi\r\n"
+                + "6\r\nlesdee\r\n"
+                + "0\r\nX-Trailer: 1\r\n\r\n";
+        HTTPResponseParser parser = new HTTPResponseParser();
+        ByteBuffer data = bytes(response);
+        for (int i = 0; i < data.limit(); i++) {
+            assertFalse(parser.isComplete());
+            ByteBuffer one = ByteBuffer.wrap(data.array(), i, 1);
+            parser.feed(one);
+            assertFalse(one.hasRemaining());
+        }
+        assertTrue(parser.isComplete());
+        assertEquals(200, parser.getStatusCode());
+        assertTrue(parser.isChunked());
+        assertTrue(parser.isKeepAlive());
+        assertEquals("d5:filesdee", body(parser));
+    }
+
+    @org.junit.jupiter.api.Test
+    void stopsAtContentLength() {
+        HTTPResponseParser parser = new HTTPResponseParser();
+        ByteBuffer data = bytes("HTTP/1.1 404 Not Found\r\ncontent-length: 3\r\nConnection: close\r\n\r\nabcHTTP/1.1");
+        assertTrue(parser.feed(data));
+        assertEquals(404, parser.getStatusCode());
+        assertEquals("Not Found", parser.getReasonPhrase());
+        assertEquals(3, parser.getContentLength());
+        assertEquals("abc", body(parser));
+        assertFalse(parser.isKeepAlive());
+        assertEquals(8, data.remaining());
+
+        parser.reset();
+        assertFalse(parser.feed(bytes("HTTP/1.0 200 OK\r\n\r\nhello")));
+        assertFalse(parser.isKeepAlive());
+        assertDoesNotThrow(parser::endOfStream);
+        assertEquals("hello", body(parser));
+    }
+
+    @org.junit.jupiter.api.Test
+    void rejectsTruncatedAndMalformedResponses() {
+        HTTPResponseParser truncated = new HTTPResponseParser();
+        truncated.feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nabc"));
+        assertThrows(EOFException.class, truncated::endOfStream);
+
+        assertThrows(ScrapeException.class, () -> new HTTPResponseParser().feed(bytes("SSH-2.0\r\n")));
+        assertThrows(ScrapeException.class, () -> new HTTPResponseParser(64, 1024)
+                .feed(bytes("HTTP/1.1 200 OK\r\nX-Long: " + new String(new char[100]).replace('\0', 'x') + "\r\n")));
+        assertThrows(ScrapeException.class, () -> new HTTPResponseParser()
+                .feed(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void inflatesCompressedBodiesFedInPieces() throws IOException {
+        StringBuilder text = new StringBuilder("d5:filesd");
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            text.append("8:complete").append("i").append(random.nextInt(1000)).append("e");
+        }
+        text.append("ee");
+        byte[] plain = text.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(plain);
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(plain);
+        deflater.finish();
+        byte[] raw = new byte[plain.length];
+        int rawLength = deflater.deflate(raw);
+        deflater.end();
+
+        HTTPResponseParser parser = new HTTPResponseParser();
+        for (String encoding : new String[] { "gzip", "deflate" }) {
+            byte[] encoded = encoding.equals("gzip") ? gzipped.toByteArray()
+                    : java.util.Arrays.copyOf(raw, rawLength);
+            parser.reset();
+            parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Encoding: " + encoding
+                    + "\r\nContent-Length: " + encoded.length + "\r\n\r\n"));
+            for (int i = 0; i < encoded.length; i += 7) {
+                parser.feed(ByteBuffer.wrap(encoded, i, Math.min(7, encoded.length - i)));
+            }
+            assertTrue(parser.isComplete(), encoding);
+            ByteBuffer body = parser.getBody();
+            assertArrayEquals(plain, java.util.Arrays.copyOf(body.array(), body.remaining()), encoding);
+        }
+
+        parser.reset();
+        byte[] corrupt = gzipped.toByteArray();
+        corrupt[corrupt.length - 5] ^= 1;
+        parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\nContent-Length: "
+                + corrupt.length + "\r\n\r\n"));
+        assertThrows(ScrapeException.class, () -> parser.feed(ByteBuffer.wrap(corrupt)));
+        parser.release();
+    }
+}
@@ -0,0 +1,99 @@
+package com.solt.tscraper.tracker.http;
+
+import com.solt.tscraper.bcodec.BEventParser;
+import com.solt.tscraper.common.TorrentState;
+import com.solt.tscraper.tracker.ScrapeException;
+import com.solt.tscraper.util.Pair;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HTTPTrackerScraperTest {
+
+    @org.junit.jupiter.api.Test
+    void splitsScrapeUrls() throws Exception {
+        List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            byte[] hash = new byte[20];
+            hash[0] = (byte) i;
+            hash[1] = (byte) (i >> 8);
+            hashes.add(hash);
+        }
+        URI announce = URI.create("http://tracker.example.com:6969/announce?passkey=abc");
+        List<Pair<URL, List<byte[]>>> urls = HTTPTrackerScraper.buildScrapeRequestUrls(announce, hashes, 2048);
+        assertTrue(urls.size() > 1);
+        int carried = 0;
+        for (Pair<URL, List<byte[]>> url : urls) {
+            String s = url.getLeft().toString();
+            assertTrue(s.length() <= 2048);
+            assertTrue(s.startsWith("http://tracker.example.com:6969/scrape?passkey=abc&info_hash="));
+            assertEquals(url.getRight().size(), s.split("info_hash=").length - 1);
+            carried += url.getRight().size();
+        }
+        assertEquals(hashes.size(), carried);
+    }
+
+    @org.junit.jupiter.api.Test
+    void parsesEveryFileEntry() throws Exception {
+        byte[] first = new byte[20];
+        byte[] second = new byte[20];
+        for (int i = 0; i < 20; i++) {
+            first[i] = (byte) (0x80 + i);
+            second[i] = (byte) (0xC0 + i);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("d5:filesd20:".getBytes(StandardCharsets.US_ASCII));
+        body.write(first);
+        body.write("d8:completei1e10:downloadedi2e10:incompletei3ee20:".getBytes(StandardCharsets.US_ASCII));
+        body.write(second);
+        body.write("d8:completei4e10:incompletei6eeee".getBytes(StandardCharsets.US_ASCII));
+        Map<ByteBuffer, TorrentState> states = HTTPTrackerScraper.parseScrapeResponses(ByteBuffer.wrap(body.toByteArray()));
+        assertEquals(2, states.size());
+        assertEquals(3, states.get(ByteBuffer.wrap(first)).getIncomplete());
+        assertEquals(4, states.get(ByteBuffer.wrap(second)).getComplete());
+        assertEquals(0, states.get(ByteBuffer.wrap(second)).getDownloaded());
+    }
+
+    @org.junit.jupiter.api.Test
+    void keepsOnlyTheWantedEntriesOfAStreamedResponse() throws Exception {
+        byte[] wanted = new byte[20];
+        wanted[0] = 1;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("d5:filesd".getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < 100; i++) {
+            byte[] hash = new byte[20];
+            hash[0] = (byte) i;
+            body.write("20:".getBytes(StandardCharsets.US_ASCII));
+            body.write(hash);
+            body.write(("d8:completei" + i + "e10:downloadedi0e10:incompletei0ee")
+                    .getBytes(StandardCharsets.US_ASCII));
+        }
+        body.write("ee".getBytes(StandardCharsets.US_ASCII));
+
+        ScrapeResponseHandler handler = new ScrapeResponseHandler(
+                Collections.singleton(ByteBuffer.wrap(wanted)));
+        BEventParser parser = new BEventParser(handler);
+        byte[] data = body.toByteArray();
+        // Fed the way a slow download arrives.
+        for (int i = 0; i < data.length; i += 7) {
+            parser.feed(ByteBuffer.wrap(data, i, Math.min(7, data.length - i)));
+        }
+        parser.endOfStream();
+        assertEquals(1, handler.getStates().size());
+        assertEquals(1, handler.getStates().get(ByteBuffer.wrap(wanted)).getComplete());
+
+        assertThrows(ScrapeException.class, () -> HTTPTrackerScraper.parseScrapeResponses(
+                ByteBuffer.wrap("d14:failure reason6:bannede".getBytes(StandardCharsets.US_ASCII))));
+        assertThrows(ScrapeException.class, () -> HTTPTrackerScraper.parseScrapeResponses(
+                ByteBuffer.wrap("de".getBytes(StandardCharsets.US_ASCII))));
+    }
+}
@@ -0,0 +1,46 @@
+package com.solt.tscraper.tracker.udp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScrapeResponseTest {
+
+    @org.junit.jupiter.api.Test
+    void packsAndParsesMultipleHashes() throws Exception {
+        List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < UDPTrackerScraper.MAX_SCRAPE_HASHES; i++) {
+            byte[] hash = new byte[20];
+            hash[19] = (byte) i;
+            hashes.add(hash);
+        }
+        ByteBuffer request = UDPTrackerScraper.createScrapeRequest(42L, 7, hashes);
+        assertEquals(16 + 20 * UDPTrackerScraper.MAX_SCRAPE_HASHES, request.remaining());
+        assertEquals(Action.SCRAPE, request.getInt(8));
+        assertEquals(5, request.get(16 + 20 * 5 + 19));
+        assertThrows(IllegalArgumentException.class, () -> {
+            hashes.add(new byte[20]);
+            UDPTrackerScraper.createScrapeRequest(42L, 7, hashes);
+        });
+
+        ByteBuffer response = ByteBuffer.allocate(UDPTrackerScraper.MAX_SCRAPE_RESPONSE_LENGTH);
+        response.putInt(Action.SCRAPE).putInt(7);
+        for (int i = 0; i < 3; i++) {
+            response.putInt(i).putInt(10 + i).putInt(20 + i);
+        }
+        response.flip();
+        ScrapeResponse parsed = (ScrapeResponse) TrackerResponse.parse(response);
+        assertEquals(3, parsed.size());
+        assertEquals(2, parsed.getComplete(2));
+        assertEquals(11, parsed.getDownloaded(1));
+        assertEquals(20, parsed.getIncomplete());
+
+        ByteBuffer truncated = ByteBuffer.allocate(15);
+        truncated.putInt(Action.SCRAPE).putInt(7).flip();
+        truncated.limit(15);
+        assertThrows(TrackerResponse.InvalidResponseException.class,
+                () -> ScrapeResponse.parse(truncated));
+    }
+}
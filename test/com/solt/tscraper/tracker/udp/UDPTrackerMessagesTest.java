@@ -0,0 +1,86 @@
+package com.solt.tscraper.tracker.udp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UDPTrackerMessagesTest {
+
+    static class Recorder implements UDPTrackerMessages.Handler {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onConnect(int transactionId, long connectionId) {
+            events.add("connect " + transactionId + " " + connectionId);
+        }
+
+        @Override
+        public boolean onScrape(int transactionId, int count) {
+            events.add("scrape " + transactionId + " " + count);
+            return true;
+        }
+
+        @Override
+        public void onScrapeEntry(int transactionId, int index, int complete,
+                int downloaded, int incomplete) {
+            events.add(index + ": " + complete + "/" + downloaded + "/" + incomplete);
+        }
+
+        @Override
+        public void onError(int transactionId, String message) {
+            events.add("error " + transactionId + " " + message);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void decodesRepliesInPlace() throws Exception {
+        ByteBuffer reply = ByteBuffer.allocateDirect(64);
+        reply.position(4);
+        reply.putInt(Action.SCRAPE).putInt(7);
+        reply.putInt(1).putInt(2).putInt(3);
+        reply.putInt(4).putInt(5).putInt(6);
+        reply.flip().position(4);
+        assertEquals(7, UDPTrackerMessages.getTransactionId(reply));
+        Recorder recorder = new Recorder();
+        UDPTrackerMessages.decode(reply, recorder);
+        assertEquals(Arrays.asList("scrape 7 2", "0: 1/2/3", "1: 4/5/6"), recorder.events);
+        assertEquals(4, reply.position());
+
+        recorder.events.clear();
+        ByteBuffer connect = ByteBuffer.allocate(16);
+        connect.putInt(Action.CONNECT).putInt(8).putLong(42L).flip();
+        UDPTrackerMessages.decode(connect, recorder);
+        ByteBuffer error = ByteBuffer.allocate(16);
+        error.putInt(Action.ERROR).putInt(9).put("banned".getBytes(StandardCharsets.US_ASCII)).flip();
+        UDPTrackerMessages.decode(error, recorder);
+        assertEquals(Arrays.asList("connect 8 42", "error 9 banned"), recorder.events);
+
+        ByteBuffer ragged = ByteBuffer.allocate(19);
+        ragged.putInt(Action.SCRAPE).putInt(7).position(19);
+        ragged.flip();
+        assertThrows(TrackerResponse.InvalidResponseException.class,
+                () -> UDPTrackerMessages.decode(ragged, recorder));
+    }
+
+    @org.junit.jupiter.api.Test
+    void encodesRequestsIntoCallerBuffers() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        UDPTrackerMessages.encodeConnect(buffer, 5);
+        assertEquals(UDPTrackerMessages.CONNECT_LENGTH, buffer.position());
+        buffer.flip();
+        assertEquals(UDPTrackerScraper.createConnectRequest(5), buffer);
+
+        byte[] hash = new byte[20];
+        hash[0] = 1;
+        buffer.clear();
+        UDPTrackerMessages.encodeScrape(buffer, 42L, 6, Arrays.asList(hash, hash));
+        assertEquals(UDPTrackerMessages.scrapeLength(2), buffer.position());
+        buffer.flip();
+        assertEquals(UDPTrackerScraper.createScrapeRequest(42L, 6, Arrays.asList(hash, hash)), buffer);
+        assertThrows(IllegalArgumentException.class, () -> UDPTrackerMessages.scrapeLength(0));
+    }
+}
@@ -0,0 +1,54 @@
+package com.solt.tscraper.util;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @org.junit.jupiter.api.Test
+    void reusesBuffersBySizeClass() {
+        BufferPool pool = new BufferPool(64, 1024, 2);
+        ByteBuffer small = pool.acquire(16);
+        assertTrue(small.isDirect());
+        assertEquals(64, small.capacity());
+        assertEquals(0, small.position());
+        assertEquals(16, small.limit());
+        ByteBuffer medium = pool.acquire(65);
+        assertEquals(128, medium.capacity());
+        assertEquals(2, pool.getAllocated());
+
+        small.put((byte) 1);
+        pool.release(small);
+        pool.release(medium);
+        ByteBuffer again = pool.acquire(64);
+        assertSame(small, again);
+        assertEquals(0, again.position());
+        assertEquals(64, again.limit());
+        assertSame(medium, pool.acquire(100));
+        assertEquals(2, pool.getAllocated());
+    }
+
+    @org.junit.jupiter.api.Test
+    void largeAndForeignBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool(64, 1024, 2);
+        ByteBuffer large = pool.acquire(2000);
+        assertFalse(large.isDirect());
+        assertEquals(2000, large.remaining());
+        pool.release(large);
+        pool.release(ByteBuffer.allocate(64));
+        ByteBuffer odd = ByteBuffer.allocateDirect(96);
+        ByteBuffer small = ByteBuffer.allocateDirect(32);
+        ByteBuffer huge = ByteBuffer.allocateDirect(2048);
+        ByteBuffer readOnly = ByteBuffer.allocateDirect(128).asReadOnlyBuffer();
+        pool.release(odd);
+        pool.release(small);
+        pool.release(huge);
+        pool.release(readOnly);
+        assertNotSame(large, pool.acquire(2000));
+        assertTrue(pool.acquire(64).isDirect());
+        assertNotSame(odd, pool.acquire(96));
+        assertNotSame(readOnly, pool.acquire(128));
+        assertEquals(3, pool.getAllocated());
+    }
+}
@@ -0,0 +1,44 @@
+package com.solt.tscraper.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntObjectMapTest {
+
+    @org.junit.jupiter.api.Test
+    void behavesLikeHashMapUnderChurn() {
+        IntObjectMap<String> map = new IntObjectMap<>(4);
+        Map<Integer, String> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            // A small key range forces long probe runs and many removals.
+            int key = random.nextInt(512) * (random.nextBoolean() ? 1 : -1 << 20);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = "v" + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = -600; key < 600; key++) {
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void removesOnlyMatchingValue() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        String value = "tx";
+        map.put(42, value);
+        assertFalse(map.remove(42, "other"));
+        assertTrue(map.remove(42, value));
+        assertFalse(map.remove(42, value));
+        assertTrue(map.isEmpty());
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+    }
+}